@@ -0,0 +1,18 @@
+#! /bin/bash
+# Builds the application and the JMH suite with Maven, then runs the
+# benchmarks against a local database loaded from data/*.csv.  Results are
+# written as JSON to bench-results/ so runs can be compared.  The report
+# cache is off, -jvmArgsAppend here replaces the one of @Fork.
+#
+# Example: DBNAME=flightDB ./bench.sh                  (every benchmark)
+#          ./bench.sh ClientBenchmark -f 2             (extra arguments go to JMH)
+DBNAME=${DBNAME:-$LOGNAME"_DB"}
+PORT=${PORT:-5432}
+DBUSER=${DBUSER:-$USER}
+
+mkdir -p bench-results
+mvn -q -B package || exit 1
+java -jar bench/target/benchmarks.jar -prof gc \
+	-rf json -rff bench-results/$(date +%Y%m%d-%H%M%S).json \
+	-jvmArgsAppend "-Dbench.db=$DBNAME -Dbench.port=$PORT -Dbench.user=$DBUSER -Dschema.dir=$(pwd)/../sql -DreportCache.maxBytes=0" \
+	"$@"
@@ -0,0 +1,93 @@
+package mechanicshop.bench;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Client side costs of the reports: materializing a result set into
+ * List<List<String>> with executeQueryAndReturnResult, and rendering report
+ * rows with a per-row printf compared with the buffered ResultRenderer the
+ * report methods use.  Run with -prof gc to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ClientBenchmark{
+	@Param({"30000"})
+	public int rows;
+
+	private Object esql;
+	private List<List<String>> report;
+	private PrintStream sink;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.esql = Shop.connect();
+		// same shape as ListCustomersWithBillLessThan100 output
+		this.report = new ArrayList<List<String>>(this.rows);
+		for(int i = 0; i < this.rows; i++){
+			List<String> row = new ArrayList<String>(5);
+			row.add("Firstname" + (i % 500) + "                      ");
+			row.add("Lastname" + (i % 500) + "                       ");
+			row.add("2016-10-22");
+			row.add("We changed the color");
+			row.add(Integer.toString(i % 100));
+			this.report.add(row);
+		}
+		this.sink = new PrintStream(OutputStream.nullOutputStream());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		Shop.cleanup(this.esql);
+	}
+
+	@Benchmark
+	public List<List<String>> materializeClosedRequests() throws Exception {
+		return Shop.query(this.esql, "SELECT * FROM closed_request LIMIT " + this.rows);
+	}
+
+	@Benchmark
+	public void printfReportRows(){
+		PrintStream out = this.sink;
+		out.printf("%-22s%-22s%-22s%-22s%-22s\n", "FirstName", "LastName", "Date", "Comment", "Bill");
+		out.println("=======================================================================");
+		for(int i = 0; i < this.report.size(); i++){
+			List<String> r = this.report.get(i);
+			out.printf("%-22s%-22s%-22s%-22s%-22s\n", r.get(0).trim(), r.get(1).trim(), r.get(2), r.get(4), r.get(3));
+		}
+	}
+
+	@Benchmark
+	public void rendererReportRows() throws Exception {
+		Object out = Shop.textRenderer(new BufferedWriter(Writer.nullWriter(), 1 << 16),
+				"FirstName", "LastName", "Date", "Comment", "Bill");
+		for(int i = 0; i < this.report.size(); i++){
+			List<String> r = this.report.get(i);
+			Shop.renderRow(out, r.get(0), r.get(1), r.get(2), r.get(3), r.get(4));
+		}
+		Shop.closeRenderer(out);
+	}
+}
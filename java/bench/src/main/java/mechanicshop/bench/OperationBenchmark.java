@@ -0,0 +1,187 @@
+package mechanicshop.bench;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end throughput of every menu operation against a local Postgres
+ * loaded from data/*.csv.  Operations run exactly as the menu runs them,
+ * with their prompts answered from a canned stdin and their report output
+ * discarded.
+ *
+ * Forks run with -DreportCache.maxBytes=0 so reports 6 to 10 reach the
+ * database instead of the report cache.  Report 9 is still answered from
+ * the service counter by the menu; listKCarsWithTheMostServicesSql runs
+ * its SQL.
+ *
+ * The write benchmarks add rows on every invocation; reload the database
+ * (createPostgreDB.sh or bulkload --truncate) before comparing runs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-DreportCache.maxBytes=0")
+public class OperationBenchmark{
+	private Object esql;
+	private PrintStream stdout;
+
+	private Method addCustomer;
+	private Method insertServiceRequest;
+	private Method closeServiceRequest;
+	private Method billLessThan100;
+	private Method moreThan20Cars;
+	private Method carsBefore1995;
+	private Method kCarsWithMostServices;
+	private Method descendingTotalBill;
+
+	//a last name shared by no other customer, whose owner has cars
+	private String regularLastName;
+	private String mechanicId;
+
+	/**
+	 * Requests still open, a different one closed by every invocation of
+	 * closeServiceRequest, as LoadDriver samples them.  When the sample
+	 * runs out another request is opened, outside the measurement, as a
+	 * copy of a loaded one.
+	 */
+	@State(Scope.Benchmark)
+	public static class OpenRequests{
+		private static final int SAMPLE_SIZE = 10000;
+
+		private final ArrayDeque<String> rids = new ArrayDeque<String>();
+		private String copiedRid;
+		String rid;
+
+		@Setup(Level.Trial)
+		public void sample(OperationBenchmark b) throws Exception {
+			for(List<String> row : Shop.preparedQuery(b.esql, "SELECT s.rid FROM service_request s " +
+					"WHERE NOT EXISTS (SELECT 1 FROM closed_request r WHERE r.rid = s.rid) LIMIT ?", SAMPLE_SIZE)){
+				this.rids.add(row.get(0).trim());
+			}
+			this.copiedRid = Shop.query(b.esql, "SELECT MIN(rid) FROM service_request").get(0).get(0).trim();
+		}
+
+		@Setup(Level.Invocation)
+		public void next(OperationBenchmark b) throws Exception {
+			if(this.rids.isEmpty()){
+				this.rids.add(Shop.preparedQuery(b.esql, "INSERT INTO service_request (rid, customer_id, car_vin, date, odometer, complain) " +
+						"SELECT nextval('service_request_rid_seq'), customer_id, car_vin, date, odometer, 'Benchmark complaint' " +
+						"FROM service_request WHERE rid = ? RETURNING rid", Integer.valueOf(this.copiedRid)).get(0).get(0).trim());
+			}
+			this.rid = this.rids.poll();
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		this.esql = Shop.connect();
+		this.addCustomer = Shop.operation("AddCustomer");
+		this.insertServiceRequest = Shop.operation("InsertServiceRequest");
+		this.closeServiceRequest = Shop.operation("CloseServiceRequest");
+		this.billLessThan100 = Shop.operation("ListCustomersWithBillLessThan100");
+		this.moreThan20Cars = Shop.operation("ListCustomersWithMoreThan20Cars");
+		this.carsBefore1995 = Shop.operation("ListCarsBefore1995With50000Milles");
+		this.kCarsWithMostServices = Shop.operation("ListKCarsWithTheMostServices");
+		this.descendingTotalBill = Shop.operation("ListCustomersInDescendingOrderOfTheirTotalBill");
+
+		this.regularLastName = Shop.query(this.esql,
+				"SELECT c.lname FROM customer c, owns o " +
+				"WHERE o.customer_id = c.id " +
+				"AND (SELECT COUNT(*) FROM customer x WHERE x.lname = c.lname) = 1 " +
+				"LIMIT 1").get(0).get(0).trim();
+		this.mechanicId = Shop.query(this.esql, "SELECT MIN(id) FROM mechanic").get(0).get(0);
+
+		this.stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		System.setOut(this.stdout);
+		Shop.cleanup(this.esql);
+	}
+
+	@Benchmark
+	public void listCustomersWithBillLessThan100() throws Exception {
+		Shop.run(this.billLessThan100, this.esql, "");
+	}
+
+	@Benchmark
+	public void listCustomersWithMoreThan20Cars() throws Exception {
+		Shop.run(this.moreThan20Cars, this.esql, "");
+	}
+
+	@Benchmark
+	public void listCarsBefore1995With50000Milles() throws Exception {
+		Shop.run(this.carsBefore1995, this.esql, "");
+	}
+
+	@Benchmark
+	public void listKCarsWithTheMostServices() throws Exception {
+		Shop.run(this.kCarsWithMostServices, this.esql, "10\n");
+	}
+
+	/**
+	 * Report 9 as SQL, the query the service counter stands in for.
+	 */
+	@Benchmark
+	public void listKCarsWithTheMostServicesSql() throws Exception {
+		Object out = Shop.textRenderer(new BufferedWriter(Writer.nullWriter(), 1 << 16));
+		Shop.sqlReport(this.esql, 9, 10, out);
+		Shop.closeRenderer(out);
+	}
+
+	@Benchmark
+	public void listCustomersInDescendingOrderOfTheirTotalBill() throws Exception {
+		Shop.run(this.descendingTotalBill, this.esql, "");
+	}
+
+	/**
+	 * The customer lookup of the intake flow, bypassing the lookup cache.
+	 */
+	@Benchmark
+	public List<List<String>> customerByLastName() throws Exception {
+		return Shop.preparedQuery(this.esql,
+				"SELECT c.lname, c.id, c.fname FROM customer c WHERE c.lname = ? GROUP BY c.id",
+				this.regularLastName);
+	}
+
+	@Benchmark
+	public void addCustomer() throws Exception {
+		Shop.run(this.addCustomer, this.esql, "Bench\nCustomer\n(555)555-0100\n1 Benchmark Way\n", (Object) null);
+	}
+
+	@Benchmark
+	public void insertServiceRequest() throws Exception {
+		// customer found, first car picked, then date, odometer and complaint
+		Shop.run(this.insertServiceRequest, this.esql,
+				this.regularLastName + "\n0\n2018-05-01\n42000\nBenchmark complaint\n");
+	}
+
+	@Benchmark
+	public void closeServiceRequest(OpenRequests open) throws Exception {
+		Shop.run(this.closeServiceRequest, this.esql,
+				open.rid + "\n" + this.mechanicId + "\n2018-05-02\nBenchmark comment\n50\n");
+	}
+}
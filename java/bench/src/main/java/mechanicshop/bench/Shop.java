@@ -0,0 +1,152 @@
+package mechanicshop.bench;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Bridge to the MechanicShop application.  JMH refuses benchmark classes in
+ * the default package, and classes in a named package can not refer to
+ * MechanicShop at compile time, so the application is reached through
+ * reflection here.  Lookups happen once; benchmarks only pay for invoke.
+ *
+ * The database comes from -Dbench.db, -Dbench.port and -Dbench.user
+ * (defaults: $USER_DB, 5432, $USER), loaded from data/*.csv.
+ */
+final class Shop{
+	private static final Class<?> SHOP;
+	private static final Field STDIN;
+	private static final Method QUERY;
+	private static final Method PREPARED_QUERY;
+	private static final Method MIGRATE;
+	private static final Method SERVICE_COUNTER;
+	private static final Method CLEANUP;
+	private static final Method RENDER_REPORT;
+	private static final Constructor<?> DATE_RANGE;
+	private static final Constructor<?> TEXT_RENDERER;
+	private static final Method RENDER_COLUMNS;
+	private static final Method RENDER_ROW;
+	private static final Method RENDER_CLOSE;
+
+	static{
+		try{
+			SHOP = Class.forName("MechanicShop");
+			STDIN = SHOP.getDeclaredField("in");
+			STDIN.setAccessible(true);
+			QUERY = SHOP.getMethod("executeQueryAndReturnResult", String.class);
+			PREPARED_QUERY = SHOP.getMethod("executePreparedQuery", String.class, Object[].class);
+			MIGRATE = SHOP.getMethod("migrateSchema");
+			SERVICE_COUNTER = SHOP.getMethod("getServiceCounter");
+			CLEANUP = SHOP.getMethod("cleanup");
+			Class<?> renderer = Class.forName("ResultRenderer");
+			Class<?> dateRange = Class.forName("DateRange");
+			RENDER_REPORT = SHOP.getMethod("renderReport", SHOP, int.class, int.class, dateRange,
+					Class.forName("QueryControl"), renderer);
+			DATE_RANGE = dateRange.getConstructor(LocalDate.class, LocalDate.class);
+			TEXT_RENDERER = Class.forName("ResultRenderer$Text").getDeclaredConstructor(Writer.class, boolean.class);
+			TEXT_RENDERER.setAccessible(true);
+			RENDER_COLUMNS = renderer.getMethod("columns", String[].class);
+			RENDER_ROW = renderer.getMethod("row", Object[].class);
+			RENDER_CLOSE = renderer.getMethod("close");
+		}catch(ReflectiveOperationException e){
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Shop(){
+	}
+
+	/**
+	 * Connects, applies pending migrations and loads the service counter,
+	 * the same startup main performs.
+	 */
+	static Object connect() throws Exception {
+		Class.forName("org.postgresql.Driver");
+		String user = System.getProperty("bench.user", System.getProperty("user.name"));
+		Object esql = SHOP.getConstructor(String.class, String.class, String.class, String.class)
+				.newInstance(System.getProperty("bench.db", user + "_DB"), System.getProperty("bench.port", "5432"), user, "");
+		invoke(MIGRATE, esql);
+		Object counter = invoke(SERVICE_COUNTER, esql);
+		invoke(counter.getClass().getMethod("load", SHOP), counter, esql);
+		return esql;
+	}
+
+	static void cleanup(Object esql) throws Exception {
+		invoke(CLEANUP, esql);
+	}
+
+	/**
+	 * Returns the static menu operation with the given name, e.g.
+	 * ListCustomersWithBillLessThan100 or AddCustomer.
+	 */
+	static Method operation(String name) throws NoSuchMethodException {
+		for(Method m : SHOP.getMethods()){
+			if(m.getName().equals(name)){
+				return m;
+			}
+		}
+		throw new NoSuchMethodException(name);
+	}
+
+	/**
+	 * Runs a menu operation with its prompts answered by the given lines.
+	 */
+	static Object run(Method operation, Object esql, String stdin, Object... extraArgs) throws Exception {
+		STDIN.set(null, new BufferedReader(new StringReader(stdin)));
+		Object[] args = new Object[1 + extraArgs.length];
+		args[0] = esql;
+		System.arraycopy(extraArgs, 0, args, 1, extraArgs.length);
+		return invoke(operation, null, args);
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<List<String>> query(Object esql, String sql) throws Exception {
+		return (List<List<String>>) invoke(QUERY, esql, sql);
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<List<String>> preparedQuery(Object esql, String sql, Object... params) throws Exception {
+		return (List<List<String>>) invoke(PREPARED_QUERY, esql, sql, params);
+	}
+
+	/**
+	 * Returns a text table renderer writing to out, the one the report
+	 * menu entries print with.
+	 */
+	static Object textRenderer(Writer out, String... columns) throws Exception {
+		Object renderer = TEXT_RENDERER.newInstance(out, false);
+		invoke(RENDER_COLUMNS, renderer, (Object) columns);
+		return renderer;
+	}
+
+	/**
+	 * Renders a report over all history as SQL.  An unbounded date range
+	 * skips the in-memory answers renderReport would otherwise give, such
+	 * as the service counter for report 9.
+	 */
+	static void sqlReport(Object esql, int report, int k, Object renderer) throws Exception {
+		invoke(RENDER_REPORT, null, esql, report, k, DATE_RANGE.newInstance(null, null), null, renderer);
+	}
+
+	static void renderRow(Object renderer, Object... values) throws Exception {
+		invoke(RENDER_ROW, renderer, (Object) values);
+	}
+
+	static void closeRenderer(Object renderer) throws Exception {
+		invoke(RENDER_CLOSE, renderer);
+	}
+
+	private static Object invoke(Method m, Object target, Object... args) throws Exception {
+		try{
+			return m.invoke(target, args);
+		}catch(InvocationTargetException e){
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+}
@@ -1,3 +1,11 @@
 #! /bin/bash
+# Virtual threads (Dashboard, HttpApi, LoadDriver) need JDK 21 or later;
+# set JAVA_HOME to pick a JDK other than the one on the PATH.
+JAVAC=${JAVA_HOME:+$JAVA_HOME/bin/}javac
+VERSION=$($JAVAC -version 2>&1 | sed -n 's/^javac \([0-9]*\).*/\1/p')
+if [ -z "$VERSION" ] || [ "$VERSION" -lt 21 ]; then
+	echo "JDK 21 or later is required, $JAVAC is $($JAVAC -version 2>&1)" >&2
+	exit 1
+fi
 rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/MechanicShop.java -d bin/
+$JAVAC --release 21 -cp "lib/postgresql-42.1.4.jar" src/*.java -d bin/
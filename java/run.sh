@@ -4,4 +4,6 @@ PORT=$2
 USER=$3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER
+# JVM options such as the pool size go in JAVA_OPTS, e.g. JAVA_OPTS="-Dpool.max=16"
+# Extra arguments select a non-interactive mode, e.g. ./run.sh flightDB 5432 user bulkload ../data
+java $JAVA_OPTS -cp lib/*:bin/ MechanicShop $DBNAME $PORT $USER "${@:4}"
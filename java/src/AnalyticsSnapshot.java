@@ -0,0 +1,670 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+
+/**
+ * This class is a read-only, in-memory copy of the tables behind the
+ * reports of menu entries 6 to 10, stored by column.  Keys, bills, years
+ * and odometer readings are int arrays, dates are epoch days, and every
+ * string (VINs, makes, models, names, comments) is replaced by its code in
+ * a dictionary.  The reports are computed from the columns with hash joins
+ * and aggregations split over the common fork-join pool.
+ *
+ * The tables are read in one REPEATABLE READ transaction, so the copy is
+ * consistent as of the moment it was taken.  It is not updated by later
+ * writes; refresh it by loading a new snapshot.
+ *
+ */
+
+public class AnalyticsSnapshot{
+	//rows per fork-join leaf task at least; leaves allocate an array as
+	//large as the customers or cars, so there is about one per core
+	private static final int SPLIT_THRESHOLD = 1 << 14;
+	//SQL NULL in a dictionary coded column
+	private static final int NULL_CODE = -1;
+
+	private static final String[][] LABELS = {
+		{"FirstName", "LastName", "Date", "Comment", "Bill"},
+		{"FirstName", "LastName"},
+		{"Make", "Model", "Year"},
+		{"Make", "Model", "Service Request"},
+		{"FirstName", "LastName", "Total Bill"}
+	};
+
+	/**
+	 * Maps strings to dense int codes and back.
+	 */
+	static class Dictionary{
+		private final HashMap<String, Integer> _codes = new HashMap<String, Integer>();
+		private final ArrayList<String> _values = new ArrayList<String>();
+		private long _chars = 0;
+
+		int encode(String value){
+			if(value == null){
+				return NULL_CODE;
+			}
+			Integer code = this._codes.get(value);
+			if(code == null){
+				code = this._values.size();
+				this._codes.put(value, code);
+				this._values.add(value);
+				this._chars += value.length();
+			}
+			return code;
+		}
+
+		String decode(int code){
+			return code == NULL_CODE ? null : this._values.get(code);
+		}
+
+		int size(){
+			return this._values.size();
+		}
+
+		/**
+		 * @return approximate heap bytes: one byte per Latin-1 character,
+		 *         56 per string and 48 per hash entry
+		 */
+		long bytes(){
+			return this._chars + this._values.size() * (56L + 48L);
+		}
+	}
+
+	/**
+	 * A growable int column.
+	 */
+	static class IntColumn{
+		private int[] _values = new int[1024];
+		private int _size = 0;
+
+		void add(int value){
+			if(this._size == this._values.length){
+				this._values = Arrays.copyOf(this._values, this._size * 2);
+			}
+			this._values[this._size++] = value;
+		}
+
+		int[] toArray(){
+			return Arrays.copyOf(this._values, this._size);
+		}
+	}
+
+	/**
+	 * Open addressing hash index from an int key to its row.
+	 */
+	static class IntIndex{
+		private final int[] _keys;
+		private final int[] _rows;
+		private final int _mask;
+
+		IntIndex(int[] keys){
+			int capacity = Integer.highestOneBit(Math.max(2, keys.length * 2 - 1)) << 1;
+			this._keys = new int[capacity];
+			this._rows = new int[capacity];
+			this._mask = capacity - 1;
+			Arrays.fill(this._rows, -1);
+			for(int row = 0; row < keys.length; row++){
+				int slot = slot(keys[row]);
+				while(this._rows[slot] != -1 && this._keys[slot] != keys[row]){
+					slot = (slot + 1) & this._mask;
+				}
+				this._keys[slot] = keys[row];
+				this._rows[slot] = row;
+			}
+		}
+
+		/**
+		 * @return the row holding key, -1 when there is none
+		 */
+		int get(int key){
+			int slot = slot(key);
+			while(this._rows[slot] != -1){
+				if(this._keys[slot] == key){
+					return this._rows[slot];
+				}
+				slot = (slot + 1) & this._mask;
+			}
+			return -1;
+		}
+
+		long bytes(){
+			return this._keys.length * 8L;
+		}
+
+		private int slot(int key){
+			return (key * 0x9E3779B9) >>> 16 & this._mask;
+		}
+	}
+
+	/**
+	 * Computes a partial result over the rows [from, to).
+	 */
+	private interface Leaf<T>{
+		T compute(int from, int to);
+	}
+
+	/**
+	 * Splits a row range in halves until it is small enough for one leaf,
+	 * then merges the partial results pairwise.  Never serialized.
+	 */
+	@SuppressWarnings("serial")
+	private static class Split<T> extends RecursiveTask<T>{
+		private final int _from;
+		private final int _to;
+		private final int _leafRows;
+		private final Leaf<T> _leaf;
+		private final BinaryOperator<T> _merge;
+
+		Split(int from, int to, int leafRows, Leaf<T> leaf, BinaryOperator<T> merge){
+			this._from = from;
+			this._to = to;
+			this._leafRows = leafRows;
+			this._leaf = leaf;
+			this._merge = merge;
+		}
+
+		@Override
+		protected T compute(){
+			if(this._to - this._from <= this._leafRows){
+				return this._leaf.compute(this._from, this._to);
+			}
+			int mid = (this._from + this._to) >>> 1;
+			Split<T> left = new Split<T>(this._from, mid, this._leafRows, this._leaf, this._merge);
+			left.fork();
+			T right = new Split<T>(mid, this._to, this._leafRows, this._leaf, this._merge).compute();
+			return this._merge.apply(left.join(), right);
+		}
+	}
+
+	private final Dictionary _vins = new Dictionary();
+	private final Dictionary _makes = new Dictionary();
+	private final Dictionary _models = new Dictionary();
+	private final Dictionary _names = new Dictionary();
+	private final Dictionary _comments = new Dictionary();
+
+	private int[] _customerId, _customerFname, _customerLname;
+	//car rows are in VIN code order, the code of a VIN is its car row
+	private int[] _carMake, _carModel, _carYear;
+	private int[] _ownsCustomer, _ownsVin;
+	private int[] _requestRid, _requestCustomer, _requestVin, _requestOdometer;
+	private int[] _closedWid, _closedRid, _closedDate, _closedComment, _closedBill;
+
+	private IntIndex _customerById, _requestByRid;
+	//owners of each car: _ownerRows[_ownerStart[car] .. _ownerStart[car + 1])
+	private int[] _ownerStart, _ownerRows;
+
+	private long _loadedAt;
+	private long _loadNanos;
+
+	private AnalyticsSnapshot(){
+	}
+
+	/**
+	 * Method to copy the report tables into a new snapshot.
+	 *
+	 * @param esql the database to copy from
+	 * @return the loaded snapshot
+	 * @throws java.sql.SQLException when failed to read the tables
+	 */
+	public static AnalyticsSnapshot load(MechanicShop esql) throws SQLException {
+		return esql.executeTransaction(pc -> {
+			Statement stmt = pc.getConnection().createStatement();
+			AnalyticsSnapshot s = load(stmt);
+			stmt.close();
+			return s;
+		});
+	}
+
+	/**
+	 * Method to check the reports computed from the columns against their
+	 * SQL versions.  A fresh snapshot and the SQL run in one transaction,
+	 * so concurrent writes can not cause a difference.  Report 10 reads
+	 * customer_bill_total, so drift in that table is reported too.
+	 *
+	 * @param esql the database to compare against
+	 * @return one line per report that differs
+	 * @throws java.sql.SQLException when failed to execute the queries
+	 */
+	public static List<String> check(MechanicShop esql) throws SQLException {
+		return esql.executeTransaction(pc -> {
+			Statement stmt = pc.getConnection().createStatement();
+			AnalyticsSnapshot s = load(stmt);
+			List<String> differences = new ArrayList<String>();
+			for(int report = 6; report <= 10; report++){
+				String query = report == 9 ? SERVICE_COUNT_QUERY : MechanicShop.reportQuery(report);
+				List<List<String>> expected = strings(stmt, query);
+				List<List<String>> actual = new ArrayList<List<String>>();
+				for(Object[] row : s.report(report, Integer.MAX_VALUE)){
+					List<String> values = new ArrayList<String>(row.length);
+					for(Object v : row){
+						values.add(v == null ? null : trimTrailing(v.toString()));
+					}
+					actual.add(values);
+				}
+				if(report == 7 || report == 8 || report == 9){
+					// no ORDER BY in SQL, compare as sets of rows
+					expected.sort(ROW_ORDER);
+					actual.sort(ROW_ORDER);
+				}
+				if(!expected.equals(actual)){
+					differences.add(String.format("Report %d differs: %d rows in SQL, %d in the snapshot, first difference at row %d",
+							report, expected.size(), actual.size(), firstDifference(expected, actual) + 1));
+				}
+			}
+			stmt.close();
+			return differences;
+		});
+	}//end check
+
+	private static final String SERVICE_COUNT_QUERY = "SELECT c.make, c.model, COUNT(r.rid) " +
+			"FROM car c, service_request r " +
+			"WHERE c.vin = r.car_vin " +
+			"GROUP BY c.make, c.model";
+
+	private static final Comparator<List<String>> ROW_ORDER = Comparator.comparing(Object::toString);
+
+	private static AnalyticsSnapshot load(Statement stmt) throws SQLException {
+		AnalyticsSnapshot s = new AnalyticsSnapshot();
+		long start = System.nanoTime();
+		// one snapshot of the database for every table
+		stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+		stmt.setFetchSize(MechanicShop.STREAM_FETCH_SIZE);
+		s.loadTables(stmt);
+		s.index();
+		s._loadNanos = System.nanoTime() - start;
+		s._loadedAt = System.currentTimeMillis();
+		return s;
+	}//end load
+
+	private static List<List<String>> strings(Statement stmt, String query) throws SQLException {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		ResultSet rs = stmt.executeQuery(query);
+		int columns = rs.getMetaData().getColumnCount();
+		while(rs.next()){
+			List<String> row = new ArrayList<String>(columns);
+			for(int i = 1; i <= columns; i++){
+				String v = rs.getString(i);
+				row.add(v == null ? null : trimTrailing(v));
+			}
+			rows.add(row);
+		}
+		rs.close();
+		return rows;
+	}
+
+	private static int firstDifference(List<List<String>> a, List<List<String>> b){
+		int i = 0;
+		while(i < a.size() && i < b.size() && a.get(i).equals(b.get(i))){
+			i++;
+		}
+		return i;
+	}
+
+	private void loadTables(Statement stmt) throws SQLException {
+		// cars first, so VIN codes follow car rows
+		IntColumn make = new IntColumn(), model = new IntColumn(), year = new IntColumn();
+		ResultSet rs = stmt.executeQuery("SELECT vin, make, model, year FROM car");
+		while(rs.next()){
+			this._vins.encode(rs.getString(1));
+			make.add(this._makes.encode(rs.getString(2)));
+			model.add(this._models.encode(rs.getString(3)));
+			year.add(rs.getInt(4));
+		}
+		rs.close();
+		this._carMake = make.toArray();
+		this._carModel = model.toArray();
+		this._carYear = year.toArray();
+
+		IntColumn id = new IntColumn(), fname = new IntColumn(), lname = new IntColumn();
+		rs = stmt.executeQuery("SELECT id, fname, lname FROM customer");
+		while(rs.next()){
+			id.add(rs.getInt(1));
+			fname.add(this._names.encode(trimTrailing(rs.getString(2))));
+			lname.add(this._names.encode(trimTrailing(rs.getString(3))));
+		}
+		rs.close();
+		this._customerId = id.toArray();
+		this._customerFname = fname.toArray();
+		this._customerLname = lname.toArray();
+
+		IntColumn owner = new IntColumn(), ownedVin = new IntColumn();
+		rs = stmt.executeQuery("SELECT customer_id, car_vin FROM owns");
+		while(rs.next()){
+			owner.add(rs.getInt(1));
+			ownedVin.add(this._vins.encode(rs.getString(2)));
+		}
+		rs.close();
+		this._ownsCustomer = owner.toArray();
+		this._ownsVin = ownedVin.toArray();
+
+		IntColumn rid = new IntColumn(), customer = new IntColumn(), vin = new IntColumn(), odometer = new IntColumn();
+		rs = stmt.executeQuery("SELECT rid, customer_id, car_vin, odometer FROM service_request");
+		while(rs.next()){
+			rid.add(rs.getInt(1));
+			customer.add(rs.getInt(2));
+			vin.add(this._vins.encode(rs.getString(3)));
+			odometer.add(rs.getInt(4));
+		}
+		rs.close();
+		this._requestRid = rid.toArray();
+		this._requestCustomer = customer.toArray();
+		this._requestVin = vin.toArray();
+		this._requestOdometer = odometer.toArray();
+
+		IntColumn wid = new IntColumn(), closedRid = new IntColumn(), date = new IntColumn();
+		IntColumn comment = new IntColumn(), bill = new IntColumn();
+		rs = stmt.executeQuery("SELECT wid, rid, date, comment, bill FROM closed_request");
+		while(rs.next()){
+			wid.add(rs.getInt(1));
+			closedRid.add(rs.getInt(2));
+			date.add((int) rs.getDate(3).toLocalDate().toEpochDay());
+			comment.add(this._comments.encode(rs.getString(4)));
+			bill.add(rs.getInt(5));
+		}
+		rs.close();
+		this._closedWid = wid.toArray();
+		this._closedRid = closedRid.toArray();
+		this._closedDate = date.toArray();
+		this._closedComment = comment.toArray();
+		this._closedBill = bill.toArray();
+	}//end loadTables
+
+	private void index(){
+		this._customerById = new IntIndex(this._customerId);
+		this._requestByRid = new IntIndex(this._requestRid);
+		// counting sort of the owns rows by car
+		int cars = this._carMake.length;
+		this._ownerStart = new int[cars + 1];
+		for(int v : this._ownsVin){
+			if(v < cars){
+				this._ownerStart[v + 1]++;
+			}
+		}
+		for(int c = 0; c < cars; c++){
+			this._ownerStart[c + 1] += this._ownerStart[c];
+		}
+		this._ownerRows = new int[this._ownerStart[cars]];
+		int[] next = Arrays.copyOf(this._ownerStart, cars);
+		for(int row = 0; row < this._ownsVin.length; row++){
+			int v = this._ownsVin[row];
+			if(v < cars){
+				this._ownerRows[next[v]++] = row;
+			}
+		}
+	}
+
+	private static String trimTrailing(String value){
+		int end = value.length();
+		while(end > 0 && value.charAt(end - 1) == ' '){
+			end--;
+		}
+		return value.substring(0, end);
+	}
+
+	private static <T> T parallel(int rows, Leaf<T> leaf, BinaryOperator<T> merge){
+		// the partial results cost as much to allocate and merge as the
+		// leaves, so the rows are split once per core rather than finely
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		int leafRows = Math.max(SPLIT_THRESHOLD, (int) ((rows + (long) parallelism - 1) / parallelism));
+		return ForkJoinPool.commonPool().invoke(new Split<T>(0, rows, leafRows, leaf, merge));
+	}
+
+	private static int[] add(int[] a, int[] b){
+		for(int i = 0; i < a.length; i++){
+			a[i] += b[i];
+		}
+		return a;
+	}
+
+	private static long[] add(long[] a, long[] b){
+		for(int i = 0; i < a.length; i++){
+			a[i] += b[i];
+		}
+		return a;
+	}
+
+	/**
+	 * @return size, age and memory use of the snapshot
+	 */
+	public String getStats(){
+		long rows = this._customerId.length + this._carMake.length + this._ownsCustomer.length
+				+ this._requestRid.length + this._closedWid.length;
+		long columns = 4L * (3L * this._customerId.length + 3L * this._carMake.length + 2L * this._ownsCustomer.length
+				+ 4L * this._requestRid.length + 5L * this._closedWid.length);
+		long indexes = this._customerById.bytes() + this._requestByRid.bytes()
+				+ 4L * (this._ownerStart.length + this._ownerRows.length);
+		long dictionaries = this._vins.bytes() + this._makes.bytes() + this._models.bytes()
+				+ this._names.bytes() + this._comments.bytes();
+		double perRow = rows == 0 ? 0 : 1.0 / rows;
+		return String.format("Analytics snapshot of %tT: %d rows loaded in %.0f ms, %.1f MB, %.1f bytes per row " +
+				"(columns %.1f, indexes %.1f, dictionaries %.1f for %d distinct strings)",
+				this._loadedAt, rows, this._loadNanos / 1e6, (columns + indexes + dictionaries) / 1048576.0,
+				(columns + indexes + dictionaries) * perRow, columns * perRow, indexes * perRow, dictionaries * perRow,
+				this._vins.size() + this._makes.size() + this._models.size() + this._names.size() + this._comments.size());
+	}
+
+	/**
+	 * Method to compute report 6 or 10 for the pager.  Report 6 jumps to a
+	 * date, report 10 to a total bill.
+	 */
+	public ReportPager.Rows pages(int report){
+		List<Object[]> rows = report(report, Integer.MAX_VALUE);
+		if(report == 6){
+			// ISO dates compare as strings
+			return new ReportPager.Rows(labels(report), rows, "date (yyyy-mm-dd)",
+					date -> firstRow(rows, r -> ((String) r[2]).compareTo(date) >= 0));
+		}
+		return new ReportPager.Rows(labels(report), rows, "total bill",
+				bill -> firstRow(rows, r -> (Long) r[2] <= Long.parseLong(bill)));
+	}
+
+	/**
+	 * @return the first row matching a condition that holds for every row
+	 *         after it, found by binary search
+	 */
+	private static int firstRow(List<Object[]> rows, Predicate<Object[]> from){
+		int lo = 0, hi = rows.size();
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(from.test(rows.get(mid))){
+				hi = mid;
+			}else{
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the headings of a report
+	 */
+	public static String[] labels(int report){
+		return LABELS[report - 6];
+	}
+
+	/**
+	 * Method to compute one of the reports of menu entries 6 to 10.  Rows
+	 * hold the same values the SQL version returns, in the same order;
+	 * reports 7 and 8, whose SQL has no ORDER BY, are ordered by customer
+	 * id and by make, model and year.
+	 *
+	 * @param report the menu entry of the report
+	 * @param k how many make and models report 9 lists
+	 * @return the report rows
+	 */
+	public List<Object[]> report(int report, int k){
+		switch(report){
+			case 6: return billsLessThan100();
+			case 7: return customersWithMoreThan20Cars();
+			case 8: return carsBefore1995With50000Miles();
+			case 9: return carsWithTheMostServices(k);
+			case 10: return customersByTotalBill();
+			default: throw new IllegalArgumentException("No report " + report + ", reports are 6 to 10");
+		}
+	}
+
+	private List<Object[]> billsLessThan100(){
+		// (date, wid) packed into one long sorts in report order
+		long[] keys = parallel(this._closedBill.length, (from, to) -> {
+			long[] part = new long[to - from];
+			int n = 0;
+			for(int r = from; r < to; r++){
+				if(this._closedBill[r] < 100){
+					part[n++] = (long) this._closedDate[r] << 32 | (this._closedWid[r] & 0xFFFFFFFFL);
+				}
+			}
+			return Arrays.copyOf(part, n);
+		}, (a, b) -> {
+			long[] both = Arrays.copyOf(a, a.length + b.length);
+			System.arraycopy(b, 0, both, a.length, b.length);
+			return both;
+		});
+		Arrays.parallelSort(keys);
+		IntIndex closedByWid = new IntIndex(this._closedWid);
+		List<Object[]> rows = new ArrayList<Object[]>(keys.length);
+		for(long key : keys){
+			int r = closedByWid.get((int) key);
+			int s = this._requestByRid.get(this._closedRid[r]);
+			int c = s < 0 ? -1 : this._customerById.get(this._requestCustomer[s]);
+			if(c < 0){
+				continue;
+			}
+			rows.add(new Object[]{this._names.decode(this._customerFname[c]), this._names.decode(this._customerLname[c]),
+					LocalDate.ofEpochDay(this._closedDate[r]).toString(), this._comments.decode(this._closedComment[r]),
+					this._closedBill[r]});
+		}
+		return rows;
+	}
+
+	private List<Object[]> customersWithMoreThan20Cars(){
+		int customers = this._customerId.length;
+		int cars = this._carMake.length;
+		int[] owned = parallel(this._ownsCustomer.length, (from, to) -> {
+			int[] part = new int[customers];
+			for(int o = from; o < to; o++){
+				int c = this._customerById.get(this._ownsCustomer[o]);
+				if(c >= 0 && this._ownsVin[o] < cars){
+					part[c]++;
+				}
+			}
+			return part;
+		}, AnalyticsSnapshot::add);
+		List<Integer> matches = new ArrayList<Integer>();
+		for(int c = 0; c < customers; c++){
+			if(owned[c] > 20){
+				matches.add(c);
+			}
+		}
+		matches.sort(Comparator.comparingInt(c -> this._customerId[c]));
+		List<Object[]> rows = new ArrayList<Object[]>(matches.size());
+		for(int c : matches){
+			rows.add(new Object[]{this._names.decode(this._customerFname[c]), this._names.decode(this._customerLname[c])});
+		}
+		return rows;
+	}
+
+	private List<Object[]> carsBefore1995With50000Miles(){
+		int cars = this._carMake.length;
+		int[] hits = parallel(this._requestVin.length, (from, to) -> {
+			int[] part = new int[cars];
+			for(int s = from; s < to; s++){
+				int v = this._requestVin[s];
+				if(this._requestOdometer[s] < 50000 && v < cars && this._carYear[v] < 1995){
+					part[v] = 1;
+				}
+			}
+			return part;
+		}, AnalyticsSnapshot::add);
+		Set<List<Object>> distinct = new HashSet<List<Object>>();
+		List<Object[]> rows = new ArrayList<Object[]>();
+		for(int v = 0; v < cars; v++){
+			if(hits[v] > 0){
+				Object[] row = {this._makes.decode(this._carMake[v]), this._models.decode(this._carModel[v]), this._carYear[v]};
+				if(distinct.add(Arrays.asList(row))){
+					rows.add(row);
+				}
+			}
+		}
+		rows.sort(Comparator.comparing((Object[] r) -> (String) r[0]).thenComparing(r -> (String) r[1])
+				.thenComparingInt(r -> (Integer) r[2]));
+		return rows;
+	}
+
+	private List<Object[]> carsWithTheMostServices(int k){
+		int cars = this._carMake.length;
+		int[] services = parallel(this._requestVin.length, (from, to) -> {
+			int[] part = new int[cars];
+			for(int s = from; s < to; s++){
+				if(this._requestVin[s] < cars){
+					part[this._requestVin[s]]++;
+				}
+			}
+			return part;
+		}, AnalyticsSnapshot::add);
+		// make and model codes packed into one long
+		Map<Long, long[]> byModel = new HashMap<Long, long[]>();
+		for(int v = 0; v < cars; v++){
+			if(services[v] > 0){
+				long key = (long) this._carMake[v] << 32 | this._carModel[v];
+				byModel.computeIfAbsent(key, x -> new long[1])[0] += services[v];
+			}
+		}
+		List<Object[]> rows = new ArrayList<Object[]>(byModel.size());
+		for(Map.Entry<Long, long[]> e : byModel.entrySet()){
+			long key = e.getKey();
+			rows.add(new Object[]{this._makes.decode((int) (key >>> 32)), this._models.decode((int) key), e.getValue()[0]});
+		}
+		// the order of ServiceCounter: highest count first, then make and model
+		rows.sort(Comparator.comparingLong((Object[] r) -> -(Long) r[2]).thenComparing(r -> (String) r[0])
+				.thenComparing(r -> (String) r[1]));
+		return rows.size() > k ? new ArrayList<Object[]>(rows.subList(0, Math.max(0, k))) : rows;
+	}
+
+	private List<Object[]> customersByTotalBill(){
+		int customers = this._customerId.length;
+		int cars = this._carMake.length;
+		// a bill counts for every owner of the serviced car, as in BILL_TOTALS_QUERY
+		long[] totals = parallel(this._closedRid.length, (from, to) -> {
+			long[] part = new long[customers];
+			for(int r = from; r < to; r++){
+				int s = this._requestByRid.get(this._closedRid[r]);
+				if(s < 0 || this._requestVin[s] >= cars){
+					continue;
+				}
+				int v = this._requestVin[s];
+				for(int i = this._ownerStart[v]; i < this._ownerStart[v + 1]; i++){
+					int c = this._customerById.get(this._ownsCustomer[this._ownerRows[i]]);
+					if(c >= 0){
+						part[c] += this._closedBill[r];
+					}
+				}
+			}
+			return part;
+		}, AnalyticsSnapshot::add);
+		List<Integer> billed = new ArrayList<Integer>();
+		for(int c = 0; c < customers; c++){
+			if(totals[c] > 0){
+				billed.add(c);
+			}
+		}
+		billed.sort(Comparator.comparingLong((Integer c) -> -totals[c]).thenComparingInt(c -> this._customerId[c]));
+		List<Object[]> rows = new ArrayList<Object[]>(billed.size());
+		for(int c : billed){
+			rows.add(new Object[]{this._names.decode(this._customerFname[c]), this._names.decode(this._customerLname[c]), totals[c]});
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,292 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs a command file without the interactive menu.  Each line
+ * holds one command followed by its fields separated by '|':
+ *
+ *   add-customer  fname|lname|phone|address
+ *   add-car       vin|make|model|year[|owner customer id]
+ *   open-request  customer id|vin|date|odometer|complaint
+ *   close-request rid|mechanic id|date|comment|bill
+ *
+ * Blank lines and lines starting with '#' are skipped.  Keys are taken from
+ * the same sequences the menu uses, and the request partitions of a line's
+ * date are created as it is read.  Consecutive commands of the same kind
+ * are sent together with addBatch/executeBatch, one transaction per batch.
+ * When a batch fails it is replayed line by line under savepoints, so a bad
+ * line is reported and skipped without losing the rest of the file.
+ *
+ */
+
+public class BatchRunner{
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	/**
+	 * A command kind and the statements one command of that kind runs.
+	 */
+	private enum Kind{
+		ADD_CUSTOMER("add-customer", 4, 4, "INSERT INTO customer VALUES(?, ?, ?, ?, ?)"),
+		ADD_CAR("add-car", 4, 5, "INSERT INTO car VALUES(?, ?, ?, ?)", "INSERT INTO owns VALUES(?, ?, ?)"),
+		OPEN_REQUEST("open-request", 5, 5, "INSERT INTO service_request VALUES(?, ?, ?, ?, ?, ?)"),
+		CLOSE_REQUEST("close-request", 5, 5, "INSERT INTO closed_request VALUES(?, ?, ?, ?, ?, ?)");
+
+		final String command;
+		final int minFields;
+		final int maxFields;
+		final String[] sql;
+
+		Kind(String command, int minFields, int maxFields, String... sql){
+			this.command = command;
+			this.minFields = minFields;
+			this.maxFields = maxFields;
+			this.sql = sql;
+		}
+
+		static Kind of(String command){
+			for(Kind k : values()){
+				if(k.command.equals(command)){
+					return k;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * One parsed line: the parameters of each statement of its kind, null
+	 * for a statement the line does not run.
+	 */
+	private static class Command{
+		final int line;
+		final Kind kind;
+		final Object[][] params;
+
+		Command(int line, Kind kind, Object[][] params){
+			this.line = line;
+			this.kind = kind;
+			this.params = params;
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final int _batchSize;
+	private long _lines = 0;
+	private long _succeeded = 0;
+	private long _failed = 0;
+	private long _batches = 0;
+
+	public BatchRunner(MechanicShop esql, int batchSize){
+		if(batchSize < 1){
+			throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+		}
+		this._esql = esql;
+		this._batchSize = batchSize;
+	}
+
+	/**
+	 * Method to run every command of a file and print a summary.
+	 *
+	 * @param file the command file
+	 * @throws java.lang.Exception when the file can not be read or the
+	 *         database becomes unreachable
+	 */
+	public void run(File file) throws Exception {
+		long start = System.nanoTime();
+		List<Command> group = new ArrayList<Command>();
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))){
+			String text;
+			int line = 0;
+			while((text = in.readLine()) != null){
+				line++;
+				text = text.trim();
+				if(text.isEmpty() || text.startsWith("#")){
+					continue;
+				}
+				this._lines++;
+				Command cmd;
+				try{
+					cmd = parse(line, text);
+				}catch(Exception e){
+					error(line, e.getMessage());
+					continue;
+				}
+				if(!group.isEmpty() && (group.get(0).kind != cmd.kind || group.size() >= this._batchSize)){
+					runGroup(group);
+					group.clear();
+				}
+				group.add(cmd);
+			}
+		}
+		if(!group.isEmpty()){
+			runGroup(group);
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Processed %d commands in %d batches: %d succeeded, %d failed in %.2f s (%.0f commands/s)\n",
+				this._lines, this._batches, this._succeeded, this._failed, seconds, this._succeeded / seconds);
+	}//end run
+
+	private Command parse(int line, String text) throws SQLException {
+		int space = text.indexOf(' ');
+		String command = space < 0 ? text : text.substring(0, space);
+		Kind kind = Kind.of(command);
+		if(kind == null){
+			throw new IllegalArgumentException("unknown command '" + command + "'");
+		}
+		String[] f = space < 0 ? new String[0] : text.substring(space + 1).split("\\|", -1);
+		for(int i = 0; i < f.length; i++){
+			f[i] = f[i].trim();
+		}
+		if(f.length < kind.minFields || f.length > kind.maxFields){
+			throw new IllegalArgumentException(command + " expects " + kind.minFields
+					+ (kind.maxFields == kind.minFields ? "" : " to " + kind.maxFields) + " fields, got " + f.length);
+		}
+
+		switch(kind){
+			case ADD_CUSTOMER:
+				return new Command(line, kind, new Object[][]{
+					{this._esql.nextId(MechanicShop.CUSTOMER_SEQ), f[0], f[1], f[2], f[3]}});
+			case ADD_CAR:
+				Object[] owns = null;
+				if(f.length == 5){
+					owns = new Object[]{this._esql.nextId(MechanicShop.OWNS_SEQ), Integer.parseInt(f[4]), f[0]};
+				}
+				return new Command(line, kind, new Object[][]{
+					{f[0], f[1], f[2], Integer.parseInt(f[3])}, owns});
+			case OPEN_REQUEST:
+				return new Command(line, kind, new Object[][]{
+					{this._esql.nextId(MechanicShop.SERVICE_REQUEST_SEQ), Integer.parseInt(f[0]), f[1],
+						partitionedDate(f[2]), Integer.parseInt(f[3]), f[4]}});
+			default:
+				return new Command(line, kind, new Object[][]{
+					{this._esql.nextId(MechanicShop.CLOSED_REQUEST_SEQ), Integer.parseInt(f[0]), Integer.parseInt(f[1]),
+						partitionedDate(f[2]), f[3], Integer.parseInt(f[4])}});
+		}
+	}//end parse
+
+	private static java.sql.Date date(String text){
+		return java.sql.Date.valueOf(BulkLoader.normalizeDate(text));
+	}
+
+	/**
+	 * @return the date of a request, whose partition is created first since
+	 *         the insert fails without one
+	 */
+	private java.sql.Date partitionedDate(String text) throws SQLException {
+		java.sql.Date date = date(text);
+		this._esql.ensurePartitions(date.toLocalDate(), date.toLocalDate());
+		return date;
+	}
+
+	private void runGroup(List<Command> group) throws SQLException {
+		this._batches++;
+		Kind kind = group.get(0).kind;
+		try{
+			this._esql.executeTransaction(pc -> {
+				for(int s = 0; s < kind.sql.length; s++){
+					PreparedStatement stmt = pc.getStatements().prepare(kind.sql[s]);
+					stmt.clearBatch();
+					boolean any = false;
+					for(Command cmd : group){
+						if(cmd.params[s] != null){
+							MechanicShop.bindParams(stmt, cmd.params[s]);
+							stmt.addBatch();
+							any = true;
+						}
+					}
+					if(any){
+						stmt.executeBatch();
+					}
+				}
+				return null;
+			});
+			this._succeeded += group.size();
+			for(Command cmd : group){
+				invalidate(cmd);
+			}
+			invalidateReports(kind);
+		}catch(SQLException e){
+			runOneByOne(group);
+		}
+	}//end runGroup
+
+	/**
+	 * Method to replay a failed batch one command at a time, each under its
+	 * own savepoint, so only the failing lines are dropped.
+	 */
+	private void runOneByOne(List<Command> group) throws SQLException {
+		// counted and invalidated once committed, as in runGroup
+		List<Command> succeeded = new ArrayList<Command>();
+		this._esql.executeTransaction(pc -> {
+			succeeded.clear();
+			Connection conn = pc.getConnection();
+			for(Command cmd : group){
+				Savepoint sp = conn.setSavepoint();
+				try{
+					for(int s = 0; s < cmd.kind.sql.length; s++){
+						if(cmd.params[s] != null){
+							PreparedStatement stmt = pc.getStatements().prepare(cmd.kind.sql[s]);
+							stmt.clearBatch();
+							MechanicShop.bindParams(stmt, cmd.params[s]);
+							stmt.executeUpdate();
+						}
+					}
+					conn.releaseSavepoint(sp);
+					succeeded.add(cmd);
+				}catch(SQLException e){
+					conn.rollback(sp);
+					error(cmd.line, e.getMessage());
+				}
+			}
+			return null;
+		});
+		this._succeeded += succeeded.size();
+		for(Command cmd : succeeded){
+			invalidate(cmd);
+		}
+		invalidateReports(group.get(0).kind);
+	}//end runOneByOne
+
+	/**
+	 * Method to drop lookup cache entries a command made stale.
+	 */
+	private void invalidate(Command cmd){
+		switch(cmd.kind){
+			case ADD_CUSTOMER:
+				this._esql.invalidateCustomersByLastName((String) cmd.params[0][2]);
+				break;
+			case ADD_CAR:
+				if(cmd.params[1] != null){
+					this._esql.invalidateCarsByOwner((Integer) cmd.params[1][1]);
+				}
+				break;
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * Method to drop the cached reports over the tables a committed batch
+	 * wrote.
+	 */
+	private void invalidateReports(Kind kind){
+		for(String sql : kind.sql){
+			this._esql.invalidateReports(sql);
+		}
+	}
+
+	private void error(int line, String message){
+		this._failed++;
+		System.err.println("line " + line + ": " + message);
+	}
+}
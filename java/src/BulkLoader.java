@@ -0,0 +1,339 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads the data/*.csv files from the client through the
+ * PostgreSQL COPY protocol, so the files do not have to sit on the database
+ * server.  Each file is streamed line by line, dates written as
+ * M/d/yyyy HH:mm are rewritten to ISO on the fly, and tables are loaded in
+ * foreign key order with independent tables loaded in parallel:
+ *
+ *   customer, mechanic, car  ->  owns, service_request  ->  closed_request
+ *
+ * Given a DataGenerator instead of a directory, the generated rows are
+ * copied straight into the tables without ever being written to disk.
+ *
+ */
+
+public class BulkLoader{
+	/**
+	 * One CSV file and the table it is copied into.
+	 */
+	private static class Table{
+		final String name;
+		final String columns;
+		final String file;
+		//zero based column holding a date, -1 when there is none
+		final int dateColumn;
+
+		Table(String name, String columns, String file, int dateColumn){
+			this.name = name;
+			this.columns = columns;
+			this.file = file;
+			this.dateColumn = dateColumn;
+		}
+	}
+
+	private static final Table CUSTOMER = new Table("customer", "id, fname, lname, phone, address", "customer.csv", -1);
+	private static final Table MECHANIC = new Table("mechanic", "id, fname, lname, experience", "mechanic.csv", -1);
+	private static final Table CAR = new Table("car", "vin, make, model, year", "car.csv", -1);
+	private static final Table OWNS = new Table("owns", "ownership_id, customer_id, car_vin", "owns.csv", -1);
+	private static final Table SERVICE_REQUEST = new Table("service_request",
+			"rid, customer_id, car_vin, date, odometer, complain", "service_request.csv", 3);
+	private static final Table CLOSED_REQUEST = new Table("closed_request",
+			"wid, rid, mid, date, comment, bill", "closed_request.csv", 3);
+
+	//tables in one stage only depend on tables of earlier stages
+	private static final Table[][] STAGES = {
+		{CUSTOMER, MECHANIC, CAR},
+		{OWNS, SERVICE_REQUEST},
+		{CLOSED_REQUEST}
+	};
+
+	//sequence, table and key column of every generated key
+	private static final String[][] SEQUENCES = {
+		{MechanicShop.CUSTOMER_SEQ, "customer", "id"},
+		{MechanicShop.OWNS_SEQ, "owns", "ownership_id"},
+		{MechanicShop.SERVICE_REQUEST_SEQ, "service_request", "rid"},
+		{MechanicShop.CLOSED_REQUEST_SEQ, "closed_request", "wid"}
+	};
+
+	private static final int COPY_BUFFER_SIZE = 1 << 16;
+
+	private final MechanicShop _esql;
+	private final File _dataDir;
+	private final DataGenerator _generator;
+
+	public BulkLoader(MechanicShop esql, File dataDir){
+		this._esql = esql;
+		this._dataDir = dataDir;
+		this._generator = null;
+	}
+
+	public BulkLoader(MechanicShop esql, DataGenerator generator){
+		this._esql = esql;
+		this._dataDir = null;
+		this._generator = generator;
+	}
+
+	/**
+	 * Method to load every CSV file of the data directory, or every table
+	 * of the generator.
+	 *
+	 * @param truncate empty the tables before loading
+	 * @throws java.lang.Exception when a file can not be read or copied;
+	 *         tables loaded by earlier stages stay loaded
+	 */
+	public void load(boolean truncate) throws Exception {
+		if(this._generator == null){
+			for(Table[] stage : STAGES){
+				for(Table t : stage){
+					File f = new File(this._dataDir, t.file);
+					if(!f.isFile()){
+						throw new IOException("Data file not found: " + f.getPath());
+					}
+				}
+			}
+		}
+
+		if(truncate){
+			this._esql.executeUpdate("TRUNCATE customer, mechanic, car, owns, service_request, closed_request, customer_bill_total");
+		}
+		// maintaining the totals row by row would dominate the load, they
+		// are rebuilt once at the end instead
+		this._esql.executeUpdate("ALTER TABLE owns DISABLE TRIGGER customer_bill_total_owns");
+		this._esql.executeUpdate("ALTER TABLE closed_request DISABLE TRIGGER customer_bill_total_closed_request");
+
+		long start = System.nanoTime();
+		long total = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(STAGES[0].length);
+		try{
+			for(Table[] stage : STAGES){
+				List<Future<Long>> loads = new ArrayList<Future<Long>>();
+				for(Table t : stage){
+					loads.add(workers.submit(() -> copy(t)));
+				}
+				for(Future<Long> load : loads){
+					try{
+						total += load.get();
+					}catch(ExecutionException e){
+						throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+					}
+				}
+			}
+		}finally{
+			workers.shutdownNow();
+			this._esql.executeUpdate("ALTER TABLE owns ENABLE TRIGGER customer_bill_total_owns");
+			this._esql.executeUpdate("ALTER TABLE closed_request ENABLE TRIGGER customer_bill_total_closed_request");
+		}
+
+		System.out.println("Rebuilding customer bill totals and sequences...");
+		this._esql.executeTransaction(pc -> {
+			Statement stmt = pc.getConnection().createStatement();
+			stmt.executeUpdate("DELETE FROM customer_bill_total");
+			stmt.executeUpdate("INSERT INTO customer_bill_total (customer_id, total_bill) " + MechanicShop.BILL_TOTALS_QUERY);
+			for(String[] seq : SEQUENCES){
+				// never move a sequence backwards, keys may already be handed out
+				stmt.execute("SELECT setval('" + seq[0] + "', GREATEST(" +
+						"(SELECT COALESCE(MAX(" + seq[2] + "), -1) + 1 FROM " + seq[1] + "), " +
+						"(SELECT last_value + " + IdGenerator.BLOCK_SIZE + " FROM " + seq[0] + ")), false)");
+			}
+			stmt.close();
+			return null;
+		});
+		this._esql.invalidateReports("INSERT INTO customer_bill_total");
+		this._esql.executeUpdate("ANALYZE");
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Loaded %d rows in %.2f s (%.0f rows/s)\n", total, seconds, total / seconds);
+	}//end load
+
+	private long copy(Table t) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long rows;
+		Reader source;
+		if(this._generator != null){
+			if(t.dateColumn >= 0){
+				ensurePartitions(this._generator.getFirstDate(), this._generator.getLastDate());
+			}
+			// generated dates are already yyyy-MM-dd
+			source = new InputStreamReader(this._generator.open(DataGenerator.Table.of(t.name)), StandardCharsets.US_ASCII);
+		}else{
+			File f = new File(this._dataDir, t.file);
+			if(t.dateColumn >= 0){
+				ensurePartitions(f, t.dateColumn);
+			}
+			source = new NormalizingReader(new BufferedReader(new InputStreamReader(
+					new FileInputStream(f), StandardCharsets.UTF_8), COPY_BUFFER_SIZE), t.dateColumn);
+		}
+		ConnectionPool.PooledConnection pc = this._esql.getPool().borrow();
+		try(Reader in = source){
+			Connection conn = pc.getConnection();
+			CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+			rows = copy.copyIn("COPY " + t.name + " (" + t.columns + ") FROM STDIN WITH (FORMAT csv)", in, COPY_BUFFER_SIZE);
+		}finally{
+			this._esql.getPool().release(pc);
+			this._esql.invalidateReports("COPY " + t.name);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-22s%12d rows %10.2f s %12.0f rows/s\n", t.name, rows, seconds, rows / seconds);
+		return rows;
+	}
+
+	/**
+	 * Method to create the yearly request partitions the dates of a file
+	 * fall in, since COPY fails on a row without one.  Costs one extra read
+	 * of the file.
+	 */
+	private void ensurePartitions(File f, int dateColumn) throws SQLException, IOException {
+		NormalizingReader in = new NormalizingReader(new BufferedReader(new InputStreamReader(
+				new FileInputStream(f), StandardCharsets.UTF_8), COPY_BUFFER_SIZE), dateColumn);
+		try{
+			while(in.nextLine()){
+			}
+		}finally{
+			in.close();
+		}
+		if(in._minDate != null){
+			ensurePartitions(LocalDate.parse(in._minDate), LocalDate.parse(in._maxDate));
+		}
+	}
+
+	private void ensurePartitions(LocalDate from, LocalDate to) throws SQLException {
+		this._esql.ensurePartitions(from, to);
+	}
+
+	/**
+	 * Method to rewrite a M/d/yyyy[ HH:mm] date as yyyy-MM-dd.  Dates that
+	 * are not in that form are returned unchanged.
+	 */
+	static String normalizeDate(String date){
+		int slash1 = date.indexOf('/');
+		int slash2 = slash1 < 0 ? -1 : date.indexOf('/', slash1 + 1);
+		if(slash2 < 0){
+			return date;
+		}
+		int end = date.indexOf(' ', slash2);
+		if(end < 0){
+			end = date.length();
+		}
+		String month = date.substring(0, slash1);
+		String day = date.substring(slash1 + 1, slash2);
+		StringBuilder iso = new StringBuilder(10);
+		iso.append(date, slash2 + 1, end).append('-');
+		if(month.length() == 1){
+			iso.append('0');
+		}
+		iso.append(month).append('-');
+		if(day.length() == 1){
+			iso.append('0');
+		}
+		return iso.append(day).toString();
+	}
+
+	/**
+	 * Reader that hands the COPY stream one normalized CSV line at a time,
+	 * dropping carriage returns and rewriting the date column.  Only the
+	 * current line is ever held in memory.
+	 */
+	private static class NormalizingReader extends Reader{
+		private final BufferedReader _in;
+		private final int _dateColumn;
+		private String _line = "";
+		private int _pos = 0;
+		// earliest and latest yyyy-MM-dd date seen so far
+		String _minDate;
+		String _maxDate;
+
+		NormalizingReader(BufferedReader in, int dateColumn){
+			this._in = in;
+			this._dateColumn = dateColumn;
+		}
+
+		@Override
+		public int read(char[] buf, int off, int len) throws IOException {
+			int n = 0;
+			while(n < len){
+				if(this._pos == this._line.length()){
+					if(!nextLine()){
+						break;
+					}
+				}
+				int chunk = Math.min(len - n, this._line.length() - this._pos);
+				this._line.getChars(this._pos, this._pos + chunk, buf, off + n);
+				this._pos += chunk;
+				n += chunk;
+			}
+			return n == 0 && len > 0 ? -1 : n;
+		}
+
+		boolean nextLine() throws IOException {
+			String line;
+			do{
+				line = this._in.readLine();
+				if(line == null){
+					return false;
+				}
+			}while(line.isEmpty());
+			if(this._dateColumn >= 0){
+				line = rewriteDate(line);
+			}
+			this._line = line + '\n';
+			this._pos = 0;
+			return true;
+		}
+
+		private String rewriteDate(String line){
+			int start = 0;
+			for(int i = 0; i < this._dateColumn; i++){
+				int comma = line.indexOf(',', start);
+				if(comma < 0){
+					return line;
+				}
+				start = comma + 1;
+			}
+			int end = line.indexOf(',', start);
+			if(end < 0){
+				end = line.length();
+			}
+			String date = line.substring(start, end);
+			String iso = normalizeDate(date);
+			if(iso.length() >= 10){
+				String day = iso.substring(0, 10);
+				if(this._minDate == null || day.compareTo(this._minDate) < 0){
+					this._minDate = day;
+				}
+				if(this._maxDate == null || day.compareTo(this._maxDate) > 0){
+					this._maxDate = day;
+				}
+			}
+			if(iso == date){
+				return line;
+			}
+			return line.substring(0, start) + iso + line.substring(end);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this._in.close();
+		}
+	}
+}
@@ -0,0 +1,404 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class is a small pool of physical PostgreSQL connections shared by
+ * every session of the process.  Connections are validated when they are
+ * borrowed, idle connections above the minimum size are closed after a
+ * timeout, and the time callers spend waiting for a connection is recorded.
+ *
+ */
+
+public class ConnectionPool{
+	/**
+	 * A physical connection together with its prepared statement cache.
+	 * Both belong to a single borrower until the connection is released.
+	 */
+	public static class PooledConnection{
+		private final Connection _connection;
+		private final StatementCache _statements;
+		private long _lastReleased;
+
+		PooledConnection(Connection connection){
+			this._connection = connection;
+			this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+			this._lastReleased = System.nanoTime();
+		}
+
+		public Connection getConnection(){
+			return this._connection;
+		}
+
+		public StatementCache getStatements(){
+			return this._statements;
+		}
+
+		void close(){
+			this._statements.close();
+			try{
+				this._connection.close();
+			}catch(SQLException e){
+				// ignored.
+			}
+		}
+	}
+
+	//seconds allowed for the validation round trip on borrow
+	private static final int VALIDATION_TIMEOUT = 2;
+
+	private final String _url;
+	private final String _user;
+	private final String _passwd;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutNanos;
+	private final long _borrowTimeoutNanos;
+
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final Condition _available = this._lock.newCondition();
+	private final ArrayDeque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+	//every connection currently open, idle or borrowed
+	private final ArrayDeque<PooledConnection> _all = new ArrayDeque<PooledConnection>();
+	private final ScheduledExecutorService _evictor;
+	//connections being opened outside the lock, counted against the maximum
+	private int _pending = 0;
+	private boolean _closed = false;
+
+	//metrics, guarded by _lock
+	private long _borrows = 0;
+	private long _waits = 0;
+	private long _timeouts = 0;
+	private long _totalWaitNanos = 0;
+	private long _maxWaitNanos = 0;
+	private long _created = 0;
+	private long _evicted = 0;
+	private long _invalid = 0;
+	//statement cache counts of the connections closed so far
+	private long _closedHits = 0;
+	private long _closedMisses = 0;
+	//time each thread has waited for a connection, for per operation numbers
+	private final ThreadLocal<long[]> _threadWaitNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+	public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+			long idleTimeoutMillis, long borrowTimeoutMillis) throws SQLException {
+		if(minSize < 0 || maxSize < 1 || minSize > maxSize){
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		}
+		this._url = url;
+		this._user = user;
+		this._passwd = passwd;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+		this._borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+		for(int i = 0; i < minSize; i++){
+			PooledConnection pc = open();
+			this._idle.push(pc);
+		}
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "connection-pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to borrow a connection.  An idle connection is reused when one
+	 * passes validation, a new one is opened while the pool is below its
+	 * maximum size, otherwise the caller waits for a release.
+	 *
+	 * @return a validated connection owned by the caller until released
+	 * @throws java.sql.SQLException when no connection became available in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		long start = System.nanoTime();
+		boolean waited = false;
+		while(true){
+			PooledConnection pc = null;
+			boolean create = false;
+			this._lock.lock();
+			try{
+				while(true){
+					if(this._closed){
+						throw new SQLException("Connection pool is closed");
+					}
+					pc = this._idle.poll();
+					if(pc != null){
+						break;
+					}
+					if(this._all.size() + this._pending < this._maxSize){
+						// reserve the slot before opening outside the lock
+						create = true;
+						this._pending++;
+						break;
+					}
+					long remaining = this._borrowTimeoutNanos - (System.nanoTime() - start);
+					if(remaining <= 0){
+						this._timeouts++;
+						throw new SQLException("Timed out waiting for a database connection after "
+								+ TimeUnit.NANOSECONDS.toMillis(this._borrowTimeoutNanos) + " ms");
+					}
+					waited = true;
+					try{
+						this._available.awaitNanos(remaining);
+					}catch(InterruptedException e){
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted waiting for a database connection", e);
+					}
+				}//end while
+			}finally{
+				this._lock.unlock();
+			}
+
+			if(create){
+				pc = openReserved();
+			}else if(!isValid(pc)){
+				discard(pc, true);
+				continue;
+			}
+			recordBorrow(System.nanoTime() - start, waited);
+			return pc;
+		}
+	}//end borrow
+
+	/**
+	 * Method to hand a borrowed connection back to the pool.  Open
+	 * transactions are rolled back and autocommit is restored so the next
+	 * borrower starts from a clean session.
+	 *
+	 * @param pc the connection returned by borrow
+	 */
+	public void release(PooledConnection pc){
+		if(pc == null){
+			return;
+		}
+		boolean reusable;
+		try{
+			Connection conn = pc.getConnection();
+			if(!conn.isClosed() && !conn.getAutoCommit()){
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+			reusable = !conn.isClosed();
+		}catch(SQLException e){
+			reusable = false;
+		}
+
+		this._lock.lock();
+		try{
+			if(reusable && !this._closed){
+				pc._lastReleased = System.nanoTime();
+				this._idle.push(pc);
+				this._available.signal();
+				return;
+			}
+		}finally{
+			this._lock.unlock();
+		}
+		discard(pc, false);
+	}//end release
+
+	/**
+	 * Method to close every connection and stop the idle evictor.
+	 * Connections still borrowed are closed when they are released.
+	 */
+	public void close(){
+		this._evictor.shutdownNow();
+		ArrayDeque<PooledConnection> idle;
+		this._lock.lock();
+		try{
+			this._closed = true;
+			idle = new ArrayDeque<PooledConnection>(this._idle);
+			this._idle.clear();
+			this._available.signalAll();
+		}finally{
+			this._lock.unlock();
+		}
+		for(PooledConnection pc : idle){
+			discard(pc, false);
+		}
+	}//end close
+
+	/**
+	 * @return number of statements served from the statement caches of
+	 *         every connection the pool has opened
+	 */
+	public long getStatementCacheHits(){
+		this._lock.lock();
+		try{
+			long hits = this._closedHits;
+			for(PooledConnection pc : this._all){
+				hits += pc.getStatements().getHits();
+			}
+			return hits;
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of statements prepared on every connection the pool
+	 *         has opened
+	 */
+	public long getStatementCacheMisses(){
+		this._lock.lock();
+		try{
+			long misses = this._closedMisses;
+			for(PooledConnection pc : this._all){
+				misses += pc.getStatements().getMisses();
+			}
+			return misses;
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the total time the calling thread has waited for a
+	 *         connection to be released, in nanoseconds
+	 */
+	public long getThreadWaitNanos(){
+		return this._threadWaitNanos.get()[0];
+	}
+
+	public String getStats(){
+		this._lock.lock();
+		try{
+			double avgWait = this._borrows == 0 ? 0 : this._totalWaitNanos / 1e6 / this._borrows;
+			return String.format("Connection pool: %d open (%d idle, min %d, max %d), %d borrows, %d waited, "
+					+ "avg wait %.3f ms, max wait %.3f ms, %d timeouts, %d created, %d evicted, %d failed validation",
+					this._all.size(), this._idle.size(), this._minSize, this._maxSize, this._borrows, this._waits,
+					avgWait, this._maxWaitNanos / 1e6, this._timeouts, this._created, this._evicted, this._invalid);
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	private PooledConnection open() throws SQLException {
+		PooledConnection pc = new PooledConnection(DriverManager.getConnection(this._url, this._user, this._passwd));
+		this._lock.lock();
+		try{
+			this._all.add(pc);
+			this._created++;
+		}finally{
+			this._lock.unlock();
+		}
+		return pc;
+	}
+
+	private PooledConnection openReserved() throws SQLException {
+		try{
+			Connection conn = DriverManager.getConnection(this._url, this._user, this._passwd);
+			PooledConnection pc = new PooledConnection(conn);
+			this._lock.lock();
+			try{
+				this._pending--;
+				this._all.add(pc);
+				this._created++;
+			}finally{
+				this._lock.unlock();
+			}
+			return pc;
+		}catch(SQLException e){
+			this._lock.lock();
+			try{
+				this._pending--;
+				this._available.signal();
+			}finally{
+				this._lock.unlock();
+			}
+			throw e;
+		}
+	}
+
+	private boolean isValid(PooledConnection pc){
+		try{
+			return pc.getConnection().isValid(VALIDATION_TIMEOUT);
+		}catch(SQLException e){
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection pc, boolean invalid){
+		this._lock.lock();
+		try{
+			if(this._all.remove(pc)){
+				retire(pc);
+			}
+			this._idle.remove(pc);
+			if(invalid){
+				this._invalid++;
+			}
+			this._available.signal();
+		}finally{
+			this._lock.unlock();
+		}
+		pc.close();
+	}
+
+	/**
+	 * Method to keep the statement cache counts of a connection leaving
+	 * the pool, called holding _lock.
+	 */
+	private void retire(PooledConnection pc){
+		this._closedHits += pc.getStatements().getHits();
+		this._closedMisses += pc.getStatements().getMisses();
+	}
+
+	private void recordBorrow(long waitNanos, boolean waited){
+		if(waited){
+			this._threadWaitNanos.get()[0] += waitNanos;
+		}
+		this._lock.lock();
+		try{
+			this._borrows++;
+			if(waited){
+				this._waits++;
+			}
+			this._totalWaitNanos += waitNanos;
+			this._maxWaitNanos = Math.max(this._maxWaitNanos, waitNanos);
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	private void evictIdle(){
+		ArrayDeque<PooledConnection> evicted = new ArrayDeque<PooledConnection>();
+		long now = System.nanoTime();
+		this._lock.lock();
+		try{
+			// the least recently released connections sit at the tail
+			Iterator<PooledConnection> it = this._idle.descendingIterator();
+			while(it.hasNext() && this._all.size() - evicted.size() > this._minSize){
+				PooledConnection pc = it.next();
+				if(now - pc._lastReleased < this._idleTimeoutNanos){
+					break;
+				}
+				it.remove();
+				evicted.add(pc);
+			}
+			for(PooledConnection pc : evicted){
+				this._all.remove(pc);
+				retire(pc);
+				this._evicted++;
+			}
+		}finally{
+			this._lock.unlock();
+		}
+		for(PooledConnection pc : evicted){
+			pc.close();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class runs the reports of menu entries 6 to 10 at the same time,
+ * one virtual thread and pooled connection each, and prints every report
+ * as soon as it is complete.  The whole dashboard takes about as long as
+ * its slowest report instead of the sum of all five.
+ *
+ * Each query runs under a timeout, and pressing Enter while the dashboard
+ * runs cancels the reports that are still running.
+ *
+ */
+
+public class Dashboard{
+	private static final int[] REPORTS = {6, 7, 8, 9, 10};
+	private static final String[] TITLES = {
+		"Customers with a bill less than 100",
+		"Customers with more than 20 cars",
+		"Cars before 1995 with less than 50000 miles",
+		"Cars with the most services",
+		"Customers by total bill"
+	};
+	//make and models listed by report 9
+	static final int TOP_K = 10;
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * The rendering of one report, or why it failed.
+	 */
+	private static class Outcome{
+		final int index;
+		final String text;
+		final long rows;
+		final long nanos;
+		final Exception error;
+
+		Outcome(int index, String text, long rows, long nanos, Exception error){
+			this.index = index;
+			this.text = text;
+			this.rows = rows;
+			this.nanos = nanos;
+			this.error = error;
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final int _timeoutSeconds;
+	private final QueryControl[] _controls = new QueryControl[REPORTS.length];
+
+	/**
+	 * @param timeoutSeconds longest a report query may run, 0 for no limit
+	 */
+	public Dashboard(MechanicShop esql, int timeoutSeconds){
+		this._esql = esql;
+		this._timeoutSeconds = timeoutSeconds;
+	}
+
+	/**
+	 * Method to run the reports and print them as they complete.
+	 *
+	 * @throws java.lang.Exception when reading the console fails
+	 */
+	public void run() throws Exception {
+		long start = System.nanoTime();
+		long busy = 0;
+		try(ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()){
+			CompletionService<Outcome> done = new ExecutorCompletionService<Outcome>(workers);
+			for(int i = 0; i < REPORTS.length; i++){
+				this._controls[i] = new QueryControl(this._timeoutSeconds);
+				int index = i;
+				done.submit(() -> render(index));
+			}
+			System.out.println("Running " + REPORTS.length + " reports, press Enter to cancel...");
+
+			for(int completed = 0; completed < REPORTS.length; ){
+				Future<Outcome> next = done.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if(next == null){
+					if(MechanicShop.in.ready()){
+						MechanicShop.in.readLine();
+						cancel();
+					}
+					continue;
+				}
+				completed++;
+				Outcome o;
+				try{
+					o = next.get();
+				}catch(ExecutionException e){
+					System.err.println(e.getCause().getMessage());
+					continue;
+				}
+				busy += o.nanos;
+				print(o);
+			}
+		}
+		System.out.printf("Dashboard done in %.1f ms, the reports took %.1f ms together\n",
+				(System.nanoTime() - start) / 1e6, busy / 1e6);
+	}//end run
+
+	/**
+	 * Method to cancel the reports that are still running.
+	 */
+	public void cancel(){
+		for(QueryControl control : this._controls){
+			if(control != null){
+				control.cancel();
+			}
+		}
+	}
+
+	private Outcome render(int index){
+		long start = System.nanoTime();
+		StringWriter text = new StringWriter();
+		ResultRenderer out = ResultRenderer.text(text);
+		try{
+			MechanicShop.renderReport(this._esql, REPORTS[index], TOP_K, this._controls[index], out);
+			out.close();
+			return new Outcome(index, text.toString(), out.getRowCount(), System.nanoTime() - start, null);
+		}catch(Exception e){
+			return new Outcome(index, null, out.getRowCount(), System.nanoTime() - start, e);
+		}
+	}
+
+	private static void print(Outcome o){
+		StringBuilder b = new StringBuilder();
+		b.append(String.format("--------%d. %s (%.1f ms", REPORTS[o.index], TITLES[o.index], o.nanos / 1e6));
+		if(o.error == null){
+			b.append(", ").append(o.rows).append(" rows)--------\n").append(o.text);
+		}else{
+			b.append(")--------\n").append(describe(o.error)).append('\n');
+		}
+		System.out.print(b);
+		System.out.flush();
+	}
+
+	private static String describe(Exception e){
+		if(e instanceof SQLException && QueryControl.QUERY_CANCELED.equals(((SQLException) e).getSQLState())){
+			// the server reports a timeout and a cancel the same way
+			return "Cancelled or timed out: " + e.getMessage();
+		}
+		return "Failed: " + e.getMessage();
+	}
+}
@@ -0,0 +1,428 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class generates the six data files at any scale, in the format of
+ * data/*.csv.  Scale 1 gives the row counts of the bundled files, and
+ * every count grows linearly with the scale.
+ *
+ * Every value of a row is a function of the seed, the table and the row
+ * number only, so the same seed always gives the same files no matter how
+ * many threads generate them, and a row can refer to another without
+ * either being kept in memory: a car's owner is recomputed wherever the
+ * car is used.  Rows are generated in chunks on all cores and handed out
+ * in order through an InputStream, with a few chunks per core in flight,
+ * so a table streams to a file or straight into COPY in constant memory.
+ *
+ * The data is skewed the way a real shop's is: low customer ids are fleet
+ * customers owning hundreds of cars at larger scales, a few makes and
+ * models make up most of the cars, and some mechanics close many more
+ * requests than others.  Requests are spread over ten years, later rids
+ * getting later dates, and the oldest nine tenths of them are closed.
+ *
+ */
+
+public class DataGenerator implements AutoCloseable{
+	public static final long DEFAULT_SEED = 1;
+	//rows generated per task
+	private static final int CHUNK_ROWS = 1 << 14;
+	//chunks generated ahead of the reader, per core
+	private static final int CHUNKS_PER_CORE = 4;
+
+	private static final LocalDate FIRST_DATE = LocalDate.of(2015, 1, 1);
+	private static final int SPAN_DAYS = 3652;
+	//days a request waits at most, past its rid's share of the span
+	private static final int INTAKE_JITTER_DAYS = 30;
+	//days a closed request stays open at most
+	private static final int REPAIR_DAYS = 14;
+
+	/**
+	 * A generated table, its file and its row count at scale 1.
+	 */
+	public enum Table{
+		CUSTOMER("customer", 500),
+		MECHANIC("mechanic", 250),
+		CAR("car", 5000),
+		OWNS("owns", 5000),
+		SERVICE_REQUEST("service_request", 30000),
+		CLOSED_REQUEST("closed_request", 27000);
+
+		final String name;
+		final String file;
+		final int baseRows;
+
+		Table(String name, int baseRows){
+			this.name = name;
+			this.file = name + ".csv";
+			this.baseRows = baseRows;
+		}
+
+		public static Table of(String name){
+			for(Table t : values()){
+				if(t.name.equals(name)){
+					return t;
+				}
+			}
+			throw new IllegalArgumentException("No generated table " + name);
+		}
+	}
+
+	//streams of random numbers, one per row and purpose
+	private static final int OWNER = 6;
+	private static final int REQUEST_DATE = 7;
+
+	private static final String[] FIRST_NAMES = {
+		"James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael", "Linda", "David", "Elizabeth",
+		"William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Carlos", "Karen",
+		"Wei", "Nancy", "Daniel", "Lisa", "Matthew", "Betty", "Anthony", "Sandra", "Mark", "Ashley",
+		"Armand", "Alberto", "Wyatt", "Alexandria", "Rory", "Blythe", "Priya", "Yuki", "Omar", "Ingrid"
+	};
+	private static final String[] LAST_NAMES = {
+		"Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+		"Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin",
+		"Lee", "Perez", "Thompson", "White", "Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson",
+		"Enderle", "Scarlett", "Ruoff", "Cuyler", "Berner", "Santacruz", "Nguyen", "Kim", "Patel", "Larsen"
+	};
+	private static final String[] STREETS = {
+		"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Main St", "Oak Lane", "Maple Avenue",
+		"Park Road", "Cedar Court", "Elm Street", "Sunset Blvd", "Lake View Drive", "Mill Road"
+	};
+	private static final String[] CITIES = {
+		"Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Springfield", "Fairview",
+		"Greenville", "Madison", "Franklin", "Clinton", "Georgetown", "Salem"
+	};
+	//makes and their models, most popular first
+	private static final String[][] MAKES = {
+		{"Toyota", "Corolla", "Camry", "Prius", "RAV4", "Tacoma"},
+		{"Ford", "F-150", "Focus", "Escape", "Mustang", "Transit"},
+		{"Honda", "Civic", "Accord", "CR-V", "Odyssey"},
+		{"Chevrolet", "Silverado", "Malibu", "Equinox", "Impala"},
+		{"Nissan", "Altima", "Sentra", "Rogue"},
+		{"Volkswagen", "Golf", "Jetta", "Passat", "Beetle"},
+		{"Hyundai", "Elantra", "Sonata", "Tucson"},
+		{"Subaru", "Outback", "Forester", "Impreza"},
+		{"BMW", "320i", "530i", "X5"},
+		{"Jeep", "Wrangler", "Cherokee"},
+		{"Mercedes-Benz", "C200", "E300"},
+		{"Volvo", "240", "XC90"},
+		{"Mazda", "MX-5", "Mazda3"},
+		{"Saab", "900", "9-3"},
+		{"Jaguar", "XJ6", "E-Type"},
+		{"Lotus", "Esprit", "Elise"},
+		{"Morgan", "Plus 4"},
+		{"Lamborghini", "Countach"}
+	};
+	private static final String[] COMPLAINTS = {
+		"No brakes", "Burns too much gas", "The wheel does not turn right", "Check engine light is on",
+		"Makes a funny noise", "Needs new tires", "Oil change", "Will not start in the cold",
+		"Air conditioning blows warm", "Pulls to the left", "Battery keeps dying", "Windshield cracked"
+	};
+	private static final String[] COMMENTS = {
+		"Replaced pads", "Changed oil", "Rotated tires", "Replaced battery", "Aligned wheels",
+		"Recharged A/C", "Replaced windshield", "Replaced spark plugs", "Could not reproduce",
+		"Replaced alternator", "Flushed coolant", "Tightened belt"
+	};
+
+	private final long _seed;
+	private final double _scale;
+	private final long[] _rows = new long[Table.values().length];
+	//every date a row can take, as yyyy-MM-dd
+	private final String[] _dates;
+	private final ExecutorService _workers;
+	private final int _window;
+
+	/**
+	 * @param scale row counts relative to the bundled data files
+	 * @param seed the same seed always generates the same rows
+	 */
+	public DataGenerator(double scale, long seed){
+		if(!(scale > 0)){
+			throw new IllegalArgumentException("Scale must be positive: " + scale);
+		}
+		this._seed = seed;
+		this._scale = scale;
+		for(Table t : Table.values()){
+			long rows = Math.max(1, Math.round(t.baseRows * scale));
+			if(rows > Integer.MAX_VALUE){
+				throw new IllegalArgumentException("Scale " + scale + " overflows the integer keys of " + t.name);
+			}
+			this._rows[t.ordinal()] = rows;
+		}
+		// one car per ownership, as in the bundled files
+		this._rows[Table.OWNS.ordinal()] = this._rows[Table.CAR.ordinal()];
+		this._rows[Table.CLOSED_REQUEST.ordinal()] = this._rows[Table.SERVICE_REQUEST.ordinal()] * 9 / 10;
+		this._dates = new String[SPAN_DAYS + INTAKE_JITTER_DAYS + REPAIR_DAYS];
+		for(int d = 0; d < this._dates.length; d++){
+			this._dates[d] = FIRST_DATE.plusDays(d).toString();
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+		this._window = cores * CHUNKS_PER_CORE;
+		this._workers = Executors.newFixedThreadPool(cores, r -> {
+			Thread t = new Thread(r, "data-generator");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	public long rows(Table t){
+		return this._rows[t.ordinal()];
+	}
+
+	public LocalDate getFirstDate(){
+		return FIRST_DATE;
+	}
+
+	public LocalDate getLastDate(){
+		return FIRST_DATE.plusDays(this._dates.length - 1);
+	}
+
+	/**
+	 * Method to stream the rows of a table as CSV lines, in row order.
+	 * Close the stream to stop generating early.
+	 */
+	public InputStream open(Table t){
+		return new ChunkStream(t);
+	}
+
+	/**
+	 * Method to write the six files into a directory, one table after the
+	 * other, each generated on all cores.
+	 *
+	 * @throws java.io.IOException when a file can not be written
+	 */
+	public void write(File dir) throws IOException {
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Can not create directory " + dir.getPath());
+		}
+		System.out.printf("Generating scale %s with seed %d into %s\n", this._scale, this._seed, dir.getPath());
+		long start = System.nanoTime();
+		long total = 0;
+		for(Table t : Table.values()){
+			long tableStart = System.nanoTime();
+			try(InputStream in = open(t); OutputStream out = new FileOutputStream(new File(dir, t.file))){
+				in.transferTo(out);
+			}
+			long rows = rows(t);
+			total += rows;
+			double seconds = (System.nanoTime() - tableStart) / 1e9;
+			System.out.printf("%-22s%12d rows %10.2f s %12.0f rows/s\n", t.name, rows, seconds, rows / seconds);
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Generated %d rows in %.2f s (%.0f rows/s)\n", total, seconds, total / seconds);
+	}
+
+	@Override
+	public void close(){
+		this._workers.shutdownNow();
+	}
+
+	private byte[] chunk(Table t, long first, long end){
+		StringBuilder b = new StringBuilder((int) (end - first) * 64);
+		Rng rng = new Rng();
+		for(long row = first; row < end; row++){
+			rng.seek(t.ordinal(), row);
+			switch(t){
+				case CUSTOMER:
+					b.append(row).append(',').append(rng.pick(FIRST_NAMES)).append(',').append(rng.pick(LAST_NAMES))
+						.append(",(").append(100 + rng.below(900)).append(')').append(100 + rng.below(900))
+						.append('-').append(1000 + rng.below(9000))
+						.append(',').append(1 + rng.below(9999)).append(' ').append(rng.pick(STREETS))
+						.append(' ').append(rng.pick(CITIES));
+					break;
+				case MECHANIC:
+					b.append(row).append(',').append(rng.pick(FIRST_NAMES)).append(',').append(rng.pick(LAST_NAMES))
+						.append(',').append(rng.below(45));
+					break;
+				case CAR:{
+					String[] make = MAKES[rng.skewed(MAKES.length, 2)];
+					b.append(vin(row)).append(',').append(make[0]).append(',').append(make[1 + rng.skewed(make.length - 1, 2)])
+						// a quarter of the cars are older than 1995
+						.append(',').append(2024 - rng.skewed(55, 2));
+					break;
+				}
+				case OWNS:
+					b.append(row).append(',').append(owner(row)).append(',').append(vin(row));
+					break;
+				case SERVICE_REQUEST:{
+					long car = rng.below(rows(Table.CAR));
+					b.append(row).append(',').append(owner(car)).append(',').append(vin(car))
+						.append(',').append(this._dates[requestDay(row)])
+						.append(',').append(1000 + rng.below(300000)).append(',').append(rng.pick(COMPLAINTS));
+					break;
+				}
+				case CLOSED_REQUEST:{
+					// closes request row, a few days after it was opened
+					int bill = rng.below(5) == 0 ? 10 + rng.below(90) : (int) (100 * Math.exp(rng.unit() * 4));
+					b.append(row).append(',').append(row).append(',').append(rng.skewed(rows(Table.MECHANIC), 2))
+						.append(',').append(this._dates[requestDay(row) + rng.below(REPAIR_DAYS)])
+						.append(',').append(rng.pick(COMMENTS)).append(',').append(bill);
+					break;
+				}
+			}
+			b.append('\n');
+		}
+		return b.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * @return the unique VIN of a car: six letters, then the car number
+	 *         in ten digits
+	 */
+	private String vin(long car){
+		Rng rng = new Rng();
+		rng.seek(Table.CAR.ordinal(), ~car);
+		char[] vin = new char[16];
+		for(int i = 0; i < 6; i++){
+			vin[i] = (char) ('A' + rng.below(26));
+		}
+		for(int i = 15; i >= 6; i--){
+			vin[i] = (char) ('0' + car % 10);
+			car /= 10;
+		}
+		return new String(vin);
+	}
+
+	/**
+	 * @return the customer owning a car, cubically skewed towards low ids
+	 */
+	private long owner(long car){
+		Rng rng = new Rng();
+		rng.seek(OWNER, car);
+		return rng.skewed(rows(Table.CUSTOMER), 3);
+	}
+
+	/**
+	 * @return the day a request was opened, in days past FIRST_DATE
+	 */
+	private int requestDay(long request){
+		Rng rng = new Rng();
+		rng.seek(REQUEST_DATE, request);
+		return (int) (request * SPAN_DAYS / rows(Table.SERVICE_REQUEST)) + rng.below(INTAKE_JITTER_DAYS);
+	}
+
+	/**
+	 * SplitMix64 numbers, restarted at a stream of its own for every table
+	 * and row.
+	 */
+	private class Rng{
+		private long _state;
+
+		void seek(int stream, long row){
+			this._state = mix(_seed * 0x9E3779B97F4A7C15L + stream * 0xC2B2AE3D27D4EB4FL + row);
+		}
+
+		long next(){
+			this._state += 0x9E3779B97F4A7C15L;
+			return mix(this._state);
+		}
+
+		double unit(){
+			return (next() >>> 11) * 0x1.0p-53;
+		}
+
+		int below(long n){
+			return (int) ((next() >>> 1) % n);
+		}
+
+		/**
+		 * @return a number below n, lower numbers more likely the larger
+		 *         the power
+		 */
+		int skewed(long n, int power){
+			return (int) Math.min(n - 1, (long) (n * Math.pow(unit(), power)));
+		}
+
+		String pick(String[] values){
+			return values[below(values.length)];
+		}
+	}
+
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * The rows of one table in order, generated a window of chunks ahead
+	 * of the reader.
+	 */
+	private class ChunkStream extends InputStream{
+		private final Table _table;
+		private final long _rows;
+		private final ArrayDeque<Future<byte[]>> _ahead = new ArrayDeque<Future<byte[]>>();
+		//first row of the next chunk to submit
+		private long _next = 0;
+		private byte[] _chunk = new byte[0];
+		private int _pos = 0;
+
+		ChunkStream(Table table){
+			this._table = table;
+			this._rows = rows(table);
+			submit();
+		}
+
+		private void submit(){
+			while(this._ahead.size() < _window && this._next < this._rows){
+				long first = this._next;
+				long end = Math.min(this._rows, first + CHUNK_ROWS);
+				this._ahead.add(_workers.submit(() -> chunk(this._table, first, end)));
+				this._next = end;
+			}
+		}
+
+		@Override
+		public int read(byte[] buf, int off, int len) throws IOException {
+			if(len == 0){
+				return 0;
+			}
+			while(this._pos == this._chunk.length){
+				Future<byte[]> next = this._ahead.poll();
+				if(next == null){
+					return -1;
+				}
+				try{
+					this._chunk = next.get();
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted generating " + this._table.name);
+				}catch(ExecutionException e){
+					throw new IOException("Failed generating " + this._table.name, e.getCause());
+				}
+				this._pos = 0;
+				submit();
+			}
+			int n = Math.min(len, this._chunk.length - this._pos);
+			System.arraycopy(this._chunk, this._pos, buf, off, n);
+			this._pos += n;
+			return n;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public void close(){
+			for(Future<byte[]> f : this._ahead){
+				f.cancel(true);
+			}
+			this._ahead.clear();
+			this._next = this._rows;
+			this._pos = this._chunk.length;
+		}
+	}
+}
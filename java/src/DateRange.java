@@ -0,0 +1,78 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is the optional date range of a report: from a first day,
+ * inclusive, to an end day, exclusive, either of them open.  Report queries
+ * compare the date column of the request tables against the bounds as
+ * plain parameters, so the planner prunes the yearly partitions outside
+ * the range.
+ *
+ */
+
+public class DateRange{
+	private final LocalDate _from;
+	private final LocalDate _to;
+
+	/**
+	 * @param from first day in the range, null for no lower bound
+	 * @param to first day past the range, null for no upper bound
+	 */
+	public DateRange(LocalDate from, LocalDate to){
+		if(from != null && to != null && !from.isBefore(to)){
+			throw new IllegalArgumentException("Empty date range: " + from + " to " + to);
+		}
+		this._from = from;
+		this._to = to;
+	}
+
+	/**
+	 * @return the range between two yyyy-MM-dd dates, either of them null
+	 *         or blank when open; null when both are
+	 */
+	public static DateRange parse(String from, String to){
+		LocalDate f = from == null || from.trim().isEmpty() ? null : LocalDate.parse(from.trim());
+		LocalDate t = to == null || to.trim().isEmpty() ? null : LocalDate.parse(to.trim());
+		return f == null && t == null ? null : new DateRange(f, t);
+	}
+
+	public LocalDate getFrom(){
+		return this._from;
+	}
+
+	public LocalDate getTo(){
+		return this._to;
+	}
+
+	/**
+	 * @return the conditions bounding column, each starting with AND, to
+	 *         bind with params()
+	 */
+	String sql(String column){
+		StringBuilder b = new StringBuilder();
+		if(this._from != null){
+			b.append(" AND ").append(column).append(" >= ?");
+		}
+		if(this._to != null){
+			b.append(" AND ").append(column).append(" < ?");
+		}
+		return b.toString();
+	}
+
+	List<Object> params(){
+		List<Object> params = new ArrayList<Object>(2);
+		if(this._from != null){
+			params.add(java.sql.Date.valueOf(this._from));
+		}
+		if(this._to != null){
+			params.add(java.sql.Date.valueOf(this._to));
+		}
+		return params;
+	}
+
+	@Override
+	public String toString(){
+		return (this._from == null ? "" : this._from.toString()) + " to " + (this._to == null ? "" : this._to.toString());
+	}
+}
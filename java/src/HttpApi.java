@@ -0,0 +1,623 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class serves the menu operations as JSON over HTTP, so any number
+ * of clients can use one process:
+ *
+ *   POST /customers                {fname, lname, phone, address}
+ *   POST /mechanics                {id, fname, lname, experience}
+ *   POST /cars                     {vin, make, model, year[, owner]}
+ *   POST /requests                 {customer_id, car_vin, date, odometer[, complain]}
+ *   POST /requests/{rid}/close     {mid, date, comment, bill}
+ *   GET  /reports/{6-10}[?k=n][&from=date][&to=date]  the report as a JSON array
+ *   GET  /search?q=words[&make=][&model=][&from=][&to=][&limit=]  ranked matches
+ *   GET  /metrics                  latency per endpoint, pool and SQL statistics
+ *
+ * Every exchange runs on its own virtual thread, and all of them share the
+ * connection pool, so -Dpool.max bounds how many hit the database at once.
+ * Connections are kept alive between requests.  Errors are answered as
+ * {"error": message} with 400 for bad input, 404 for unknown ids, 409 for
+ * constraint violations and 503 when the database is unreachable.
+ *
+ */
+
+public class HttpApi implements AutoCloseable{
+	//connections the kernel queues before the server accepts them
+	static final int BACKLOG = Integer.getInteger("http.backlog", 1024);
+	//longest a report query may run, in seconds
+	static final int QUERY_TIMEOUT = Integer.getInteger("http.queryTimeoutSec", 30);
+	private static final int MAX_BODY = 1 << 16;
+	//seconds allowed for exchanges in progress when stopping
+	private static final int STOP_DELAY = 2;
+
+	/**
+	 * The body of a streamed 200 response.  The headers go out with the
+	 * first bytes, so a query that fails before its first row can still be
+	 * answered with the error status.
+	 */
+	private static class StreamedBody extends OutputStream{
+		private final HttpExchange _ex;
+		private OutputStream _body = null;
+
+		StreamedBody(HttpExchange ex){
+			this._ex = ex;
+		}
+
+		private OutputStream open() throws IOException {
+			if(this._body == null){
+				this._ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+				this._ex.sendResponseHeaders(200, 0);
+				this._body = this._ex.getResponseBody();
+			}
+			return this._body;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			open().write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			open().write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if(this._body != null){
+				this._body.flush();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			open().close();
+		}
+	}
+
+	/**
+	 * A request the client got wrong, answered with its status code.
+	 */
+	static class ApiException extends Exception{
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		ApiException(int status, String message){
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Handles one endpoint.  groups are the path parts captured by the
+	 * route pattern.
+	 */
+	private interface Handler{
+		void handle(HttpExchange ex, String[] groups) throws Exception;
+	}
+
+	private static class Route{
+		final String method;
+		final Pattern path;
+		final String name;
+		final Handler handler;
+
+		Route(String method, String path, Handler handler){
+			this.method = method;
+			this.path = Pattern.compile(path);
+			this.name = method + " " + path.replace("(\\d+)", "{id}");
+			this.handler = handler;
+		}
+	}
+
+	/**
+	 * Latency and error count of one endpoint.
+	 */
+	private static class Stat{
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder errors = new LongAdder();
+	}
+
+	private final MechanicShop _esql;
+	private final HttpServer _server;
+	private final ExecutorService _workers = Executors.newVirtualThreadPerTaskExecutor();
+	private final List<Route> _routes = new ArrayList<Route>();
+	private final Map<String, Stat> _stats = new ConcurrentHashMap<String, Stat>();
+
+	public HttpApi(MechanicShop esql, int port) throws IOException {
+		this._esql = esql;
+		this._routes.add(new Route("POST", "/customers", this::addCustomer));
+		this._routes.add(new Route("POST", "/mechanics", this::addMechanic));
+		this._routes.add(new Route("POST", "/cars", this::addCar));
+		this._routes.add(new Route("POST", "/requests", this::openRequest));
+		this._routes.add(new Route("POST", "/requests/(\\d+)/close", this::closeRequest));
+		this._routes.add(new Route("GET", "/reports/(\\d+)", this::report));
+		this._routes.add(new Route("GET", "/search", this::search));
+		this._routes.add(new Route("GET", "/metrics", this::metrics));
+		this._server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+		this._server.createContext("/", this::dispatch);
+		this._server.setExecutor(this._workers);
+	}
+
+	public void start(){
+		this._server.start();
+	}
+
+	public int getPort(){
+		return this._server.getAddress().getPort();
+	}
+
+	/**
+	 * Method to stop accepting requests, giving those in progress a moment
+	 * to finish.
+	 */
+	@Override
+	public void close(){
+		this._server.stop(STOP_DELAY);
+		this._workers.shutdown();
+	}
+
+	private void dispatch(HttpExchange ex){
+		long start = System.nanoTime();
+		String name = "(unmatched)";
+		boolean failed = true;
+		try{
+			String path = ex.getRequestURI().getPath();
+			Route route = null;
+			Matcher m = null;
+			boolean pathKnown = false;
+			for(Route r : this._routes){
+				m = r.path.matcher(path);
+				if(m.matches()){
+					pathKnown = true;
+					if(r.method.equals(ex.getRequestMethod())){
+						route = r;
+						break;
+					}
+				}
+			}
+			if(route == null){
+				throw new ApiException(pathKnown ? 405 : 404, "No " + ex.getRequestMethod() + " " + path);
+			}
+			name = route.name;
+			String[] groups = new String[m.groupCount()];
+			for(int i = 0; i < groups.length; i++){
+				groups[i] = m.group(i + 1);
+			}
+			// database time of the exchange shows under its endpoint in the Stats menu
+			this._esql.getMetrics().beginOperation("HTTP " + name);
+			try{
+				route.handler.handle(ex, groups);
+			}finally{
+				this._esql.getMetrics().endOperation();
+			}
+			failed = false;
+		}catch(ApiException e){
+			error(ex, e.status, e.getMessage());
+		}catch(SQLException e){
+			error(ex, status(e), e.getMessage());
+		}catch(IllegalArgumentException | DateTimeException | ArithmeticException e){
+			// NumberFormatException and bad dates are the client's input
+			error(ex, 400, e.getMessage());
+		}catch(Exception e){
+			error(ex, 500, e.getMessage());
+		}finally{
+			ex.close();
+			Stat stat = this._stats.computeIfAbsent(name, k -> new Stat());
+			stat.latency.recordNanos(System.nanoTime() - start);
+			if(failed){
+				stat.errors.increment();
+			}
+		}
+	}//end dispatch
+
+	private static int status(SQLException e){
+		String state = e.getSQLState();
+		if(state == null){
+			// the pool timed out or is closed
+			return 503;
+		}
+		if(state.startsWith("23")){
+			return 409;
+		}
+		if(state.startsWith("22")){
+			return 400;
+		}
+		if(state.startsWith("08") || state.equals(QueryControl.QUERY_CANCELED)){
+			return 503;
+		}
+		return 500;
+	}
+
+	private void addCustomer(HttpExchange ex, String[] groups) throws Exception {
+		Map<String, Object> body = body(ex);
+		int id = this._esql.nextId(MechanicShop.CUSTOMER_SEQ);
+		String lname = text(body, "lname");
+		this._esql.executePreparedUpdate("INSERT INTO customer VALUES(?, ?, ?, ?, ?)",
+				id, text(body, "fname"), lname, text(body, "phone"), text(body, "address"));
+		this._esql.invalidateCustomersByLastName(lname);
+		send(ex, 201, "{\"id\": " + id + "}");
+	}
+
+	private void addMechanic(HttpExchange ex, String[] groups) throws Exception {
+		Map<String, Object> body = body(ex);
+		int id = number(body, "id");
+		this._esql.executePreparedUpdate("INSERT INTO mechanic VALUES(?, ?, ?, ?)",
+				id, text(body, "fname"), text(body, "lname"), number(body, "experience"));
+		send(ex, 201, "{\"id\": " + id + "}");
+	}
+
+	private void addCar(HttpExchange ex, String[] groups) throws Exception {
+		Map<String, Object> body = body(ex);
+		Object[] car = {text(body, "vin"), text(body, "make"), text(body, "model"), number(body, "year")};
+		if(body.get("owner") == null){
+			this._esql.executePreparedUpdate("INSERT INTO car VALUES(?, ?, ?, ?)", car);
+		}else{
+			int owner = number(body, "owner");
+			int ownershipId = this._esql.nextId(MechanicShop.OWNS_SEQ);
+			// the car and its ownership commit together
+			this._esql.executeTransaction(pc -> {
+				PreparedStatement stmt = pc.getStatements().prepare("INSERT INTO car VALUES(?, ?, ?, ?)");
+				MechanicShop.bindParams(stmt, car);
+				stmt.executeUpdate();
+				stmt = pc.getStatements().prepare("INSERT INTO owns VALUES(?, ?, ?)");
+				MechanicShop.bindParams(stmt, new Object[]{ownershipId, owner, car[0]});
+				stmt.executeUpdate();
+				return null;
+			});
+			this._esql.invalidateCarsByOwner(owner);
+			this._esql.invalidateReports("INSERT INTO car");
+			this._esql.invalidateReports("INSERT INTO owns");
+		}
+		send(ex, 201, "{\"vin\": " + quote((String) car[0]) + "}");
+	}
+
+	private void openRequest(HttpExchange ex, String[] groups) throws Exception {
+		Map<String, Object> body = body(ex);
+		int customerId = number(body, "customer_id");
+		String vin = text(body, "car_vin");
+		String date = text(body, "date");
+		int odometer = number(body, "odometer");
+		Object complain = body.get("complain");
+		// as in the menu, a request is opened for one of the customer's cars
+		MechanicShop.OwnedCar car = null;
+		for(MechanicShop.OwnedCar c : this._esql.findCarsByOwner(customerId)){
+			if(c.vin().equals(vin)){
+				car = c;
+			}
+		}
+		if(car == null){
+			throw new ApiException(404, "Customer " + customerId + " owns no car " + vin);
+		}
+		int rid = this._esql.nextId(MechanicShop.SERVICE_REQUEST_SEQ);
+		boolean queued = MechanicShop.openServiceRequest(this._esql, rid, customerId, vin, date, odometer,
+				complain == null ? null : complain.toString(), null, null, null, car.make(), car.model());
+		send(ex, queued ? 202 : 201, "{\"rid\": " + rid + "}");
+	}
+
+	private void closeRequest(HttpExchange ex, String[] groups) throws Exception {
+		Map<String, Object> body = body(ex);
+		int rid = Integer.parseInt(groups[0]);
+		int mid = number(body, "mid");
+		Object comment = body.get("comment");
+		int wid = this._esql.nextId(MechanicShop.CLOSED_REQUEST_SEQ);
+		String unknown = MechanicShop.closeServiceRequest(this._esql, wid, rid, mid, text(body, "date"),
+				comment == null ? null : comment.toString(), number(body, "bill"));
+		if(MechanicShop.UNKNOWN_REQUEST.equals(unknown)){
+			throw new ApiException(404, "Service request " + rid + " not found");
+		}
+		if(MechanicShop.UNKNOWN_MECHANIC.equals(unknown)){
+			throw new ApiException(404, "Mechanic " + mid + " not found");
+		}
+		send(ex, this._esql.getWriteBehind() != null ? 202 : 201, "{\"wid\": " + wid + "}");
+	}
+
+	private void report(HttpExchange ex, String[] groups) throws Exception {
+		int report = Integer.parseInt(groups[0]);
+		if(report < 6 || report > 10){
+			throw new ApiException(404, "No report " + report + ", reports are 6 to 10");
+		}
+		Map<String, String> params = query(ex.getRequestURI());
+		DateRange range = DateRange.parse(params.get("from"), params.get("to"));
+		int top = nonNegative(params, "k", report == 9 ? Dashboard.TOP_K : Integer.MAX_VALUE);
+		// rows are streamed in chunks, a failure after the first chunk went
+		// out can only cut the response short
+		Writer out = new BufferedWriter(new OutputStreamWriter(new StreamedBody(ex), StandardCharsets.UTF_8), 1 << 16);
+		ResultRenderer json = ResultRenderer.json(out);
+		MechanicShop.renderReport(this._esql, report, top, range, new QueryControl(QUERY_TIMEOUT), json);
+		// not closed on failure, which would send the partial array as a 200
+		json.close();
+		out.close();
+	}
+
+	private void search(HttpExchange ex, String[] groups) throws Exception {
+		Map<String, String> params = query(ex.getRequestURI());
+		String q = params.get("q");
+		if(q == null || q.isBlank()){
+			throw new ApiException(400, "Missing q, the words to search for");
+		}
+		DateRange range = DateRange.parse(params.get("from"), params.get("to"));
+		int limit = nonNegative(params, "limit", MechanicShop.SEARCH_LIMIT);
+		Writer out = new BufferedWriter(new OutputStreamWriter(new StreamedBody(ex), StandardCharsets.UTF_8));
+		ResultRenderer json = ResultRenderer.json(out);
+		MechanicShop.searchRequests(this._esql, q, params.get("make"), params.get("model"), range,
+				limit, new QueryControl(QUERY_TIMEOUT), json);
+		json.close();
+		out.close();
+	}
+
+	private void metrics(HttpExchange ex, String[] groups) throws Exception {
+		StringBuilder b = new StringBuilder("{\n  \"endpoints\": {");
+		String sep = "\n";
+		for(Map.Entry<String, Stat> e : new TreeMap<String, Stat>(this._stats).entrySet()){
+			LatencyHistogram h = e.getValue().latency;
+			b.append(sep).append("    ").append(quote(e.getKey())).append(String.format(
+					": {\"count\": %d, \"errors\": %d, \"mean_ms\": %.3f, \"p50_ms\": %.3f, \"p95_ms\": %.3f, \"p99_ms\": %.3f, \"max_ms\": %.3f}",
+					h.getCount(), e.getValue().errors.sum(), h.getMean() / 1e3, h.percentile(50) / 1e3,
+					h.percentile(95) / 1e3, h.percentile(99) / 1e3, h.getMax() / 1e3));
+			sep = ",\n";
+		}
+		b.append("\n  },\n  \"pool\": ").append(quote(this._esql.getPoolStats()));
+		b.append(",\n  \"reportCache\": ").append(quote(this._esql.getReportCache().getStats()));
+		b.append(",\n  \"database\": ").append(quote(this._esql.getMetrics().report()));
+		if(this._esql.getWriteBehind() != null){
+			b.append(",\n  \"writeBehind\": ").append(quote(this._esql.getWriteBehind().getStats()));
+		}
+		b.append("\n}\n");
+		send(ex, 200, b.toString());
+	}
+
+	private static void send(HttpExchange ex, int status, String json) throws IOException {
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		ex.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = ex.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+
+	private static void error(HttpExchange ex, int status, String message){
+		try{
+			send(ex, status, "{\"error\": " + quote(message == null ? "" : message) + "}");
+		}catch(IOException | IllegalStateException e){
+			// the headers went out already or the client left
+		}
+	}
+
+	private static Map<String, Object> body(HttpExchange ex) throws IOException, ApiException {
+		InputStream in = ex.getRequestBody();
+		byte[] bytes = in.readNBytes(MAX_BODY + 1);
+		if(bytes.length > MAX_BODY){
+			throw new ApiException(413, "Request body over " + MAX_BODY + " bytes");
+		}
+		return parseObject(new String(bytes, StandardCharsets.UTF_8));
+	}
+
+	private static String text(Map<String, Object> body, String field) throws ApiException {
+		Object v = body.get(field);
+		if(v == null){
+			throw new ApiException(400, "Missing field " + field);
+		}
+		return v.toString();
+	}
+
+	private static int number(Map<String, Object> body, String field) throws ApiException {
+		Object v = body.get(field);
+		if(v == null){
+			throw new ApiException(400, "Missing field " + field);
+		}
+		if(v instanceof Long){
+			return Math.toIntExact((Long) v);
+		}
+		try{
+			return Integer.parseInt(v.toString());
+		}catch(NumberFormatException e){
+			throw new ApiException(400, "Field " + field + " is not an integer: " + v);
+		}
+	}
+
+	/**
+	 * @return the integer query parameter, or the default when it is missing
+	 * @throws ApiException when it is not a whole number of zero or more
+	 */
+	private static int nonNegative(Map<String, String> params, String name, int missing) throws ApiException {
+		String v = params.get(name);
+		if(v == null){
+			return missing;
+		}
+		try{
+			int n = Integer.parseInt(v);
+			if(n >= 0){
+				return n;
+			}
+		}catch(NumberFormatException e){
+			// answered below
+		}
+		throw new ApiException(400, "Parameter " + name + " must be a whole number of zero or more: " + v);
+	}
+
+	private static Map<String, String> query(URI uri){
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		// split before decoding, search text may hold & and =
+		String q = uri.getRawQuery();
+		if(q != null){
+			for(String pair : q.split("&")){
+				int eq = pair.indexOf('=');
+				if(eq > 0){
+					params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+							URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+				}
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Method to parse a JSON object whose values are strings, numbers,
+	 * booleans or null.  Integers become Long, other numbers Double.
+	 *
+	 * @throws ApiException when the text is not such an object
+	 */
+	static Map<String, Object> parseObject(String text) throws ApiException {
+		Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		int[] pos = {skip(text, 0)};
+		expect(text, pos, '{');
+		if(peek(text, pos) == '}'){
+			pos[0]++;
+		}else{
+			while(true){
+				String key = string(text, pos);
+				expect(text, pos, ':');
+				fields.put(key, value(text, pos));
+				char c = peek(text, pos);
+				pos[0]++;
+				if(c == '}'){
+					break;
+				}
+				if(c != ','){
+					throw new ApiException(400, "Expected ',' or '}' at " + (pos[0] - 1));
+				}
+			}
+		}
+		if(skip(text, pos[0]) != text.length()){
+			throw new ApiException(400, "Unexpected text after the object at " + pos[0]);
+		}
+		return fields;
+	}
+
+	private static Object value(String text, int[] pos) throws ApiException {
+		char c = peek(text, pos);
+		if(c == '"'){
+			return string(text, pos);
+		}
+		int start = pos[0];
+		while(pos[0] < text.length() && ",}] \t\r\n".indexOf(text.charAt(pos[0])) < 0){
+			pos[0]++;
+		}
+		String word = text.substring(start, pos[0]);
+		switch(word){
+			case "null": return null;
+			case "true": return Boolean.TRUE;
+			case "false": return Boolean.FALSE;
+			case "": throw new ApiException(400, "Expected a value at " + start);
+		}
+		if(c == '{' || c == '['){
+			throw new ApiException(400, "Nested objects and arrays are not supported");
+		}
+		try{
+			if(word.indexOf('.') < 0 && word.indexOf('e') < 0 && word.indexOf('E') < 0){
+				return Long.parseLong(word);
+			}
+			return Double.parseDouble(word);
+		}catch(NumberFormatException e){
+			throw new ApiException(400, "Invalid value '" + word + "' at " + start);
+		}
+	}
+
+	private static String string(String text, int[] pos) throws ApiException {
+		expect(text, pos, '"');
+		StringBuilder b = new StringBuilder();
+		while(pos[0] < text.length()){
+			char c = text.charAt(pos[0]++);
+			if(c == '"'){
+				return b.toString();
+			}
+			if(c != '\\'){
+				b.append(c);
+				continue;
+			}
+			if(pos[0] >= text.length()){
+				break;
+			}
+			char e = text.charAt(pos[0]++);
+			switch(e){
+				case 'n': b.append('\n'); break;
+				case 'r': b.append('\r'); break;
+				case 't': b.append('\t'); break;
+				case 'b': b.append('\b'); break;
+				case 'f': b.append('\f'); break;
+				case 'u':
+					if(pos[0] + 4 > text.length()){
+						throw new ApiException(400, "Invalid escape at " + (pos[0] - 2));
+					}
+					try{
+						b.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+					}catch(NumberFormatException ex){
+						throw new ApiException(400, "Invalid escape at " + (pos[0] - 2));
+					}
+					pos[0] += 4;
+					break;
+				default: b.append(e); break;
+			}
+		}
+		throw new ApiException(400, "Unterminated string");
+	}
+
+	private static void expect(String text, int[] pos, char c) throws ApiException {
+		if(peek(text, pos) != c){
+			throw new ApiException(400, "Expected '" + c + "' at " + pos[0]);
+		}
+		pos[0]++;
+	}
+
+	/**
+	 * @return the next character that is not white space, 0 at the end
+	 */
+	private static char peek(String text, int[] pos){
+		pos[0] = skip(text, pos[0]);
+		return pos[0] < text.length() ? text.charAt(pos[0]) : 0;
+	}
+
+	private static int skip(String text, int i){
+		while(i < text.length() && Character.isWhitespace(text.charAt(i))){
+			i++;
+		}
+		return i;
+	}
+
+	static String quote(String value){
+		StringBuilder b = new StringBuilder(value.length() + 2).append('"');
+		for(int i = 0; i < value.length(); i++){
+			char c = value.charAt(i);
+			switch(c){
+				case '"': b.append("\\\""); break;
+				case '\\': b.append("\\\\"); break;
+				case '\n': b.append("\\n"); break;
+				case '\r': b.append("\\r"); break;
+				case '\t': b.append("\\t"); break;
+				default:
+					if(c < 0x20){
+						b.append(String.format("\\u%04x", (int) c));
+					}else{
+						b.append(c);
+					}
+			}
+		}
+		return b.append('"').toString();
+	}
+}
@@ -0,0 +1,52 @@
+import java.sql.SQLException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class hands out primary keys from a database sequence using a hi/lo
+ * scheme.  Each nextval reserves a whole block of BLOCK_SIZE keys for this
+ * process, so most inserts need no round trip for their key, and sessions
+ * in other threads or processes never receive the same key.
+ *
+ * The sequence must be declared with INCREMENT BY BLOCK_SIZE (see
+ * sql/migrations/V2__key_sequences.sql).
+ *
+ */
+
+public class IdGenerator{
+	//keys reserved per nextval, must match the sequence increment
+	public static final int BLOCK_SIZE = 20;
+
+	private final MechanicShop _esql;
+	private final String _sequence;
+	//next key to hand out and the first key past the reserved block
+	private long _next = 0;
+	private long _limit = 0;
+	//not a monitor: a virtual thread holding it across the nextval round trip
+	//would pin its carrier, and so would every thread queued behind it
+	private final ReentrantLock _lock = new ReentrantLock();
+
+	public IdGenerator(MechanicShop esql, String sequence){
+		this._esql = esql;
+		this._sequence = sequence;
+	}
+
+	/**
+	 * Method to return the next unused key, reserving a new block from the
+	 * sequence when the current one is exhausted.
+	 *
+	 * @return a key no other session has been given
+	 * @throws java.sql.SQLException when the sequence can not be read
+	 */
+	public int nextId() throws SQLException {
+		this._lock.lock();
+		try{
+			if(this._next >= this._limit){
+				this._next = this._esql.executeQueryAndMap("SELECT nextval(?::regclass)", rs -> rs.getLong(1), this._sequence).get(0);
+				this._limit = this._next + BLOCK_SIZE;
+			}//end if
+			return Math.toIntExact(this._next++);
+		}finally{
+			this._lock.unlock();
+		}
+	}//end nextId
+}
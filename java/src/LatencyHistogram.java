@@ -0,0 +1,88 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a fixed size, lock free latency histogram.  Values are
+ * recorded in microseconds into log-linear buckets: every power of two is
+ * split into eight linear sub-buckets, so percentiles are reported within
+ * 12.5% of the true value while the whole histogram stays under 4 KB.
+ * Count, sum and maximum are exact.
+ *
+ */
+
+public class LatencyHistogram{
+	//values below this are counted exactly, one bucket each
+	private static final int LINEAR = 16;
+	private static final int SUB_BUCKETS = 8;
+	private static final int BUCKETS = LINEAR + (64 - 4) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final AtomicLong _max = new AtomicLong();
+
+	public void recordNanos(long nanos){
+		record(Math.max(0, nanos / 1000));
+	}
+
+	public void record(long micros){
+		this._counts.incrementAndGet(index(micros));
+		this._count.increment();
+		this._sum.add(micros);
+		this._max.accumulateAndGet(micros, Math::max);
+	}
+
+	public long getCount(){
+		return this._count.sum();
+	}
+
+	public long getMax(){
+		return this._max.get();
+	}
+
+	public double getMean(){
+		long count = getCount();
+		return count == 0 ? 0 : (double) this._sum.sum() / count;
+	}
+
+	/**
+	 * @param p the percentile wanted, between 0 and 100
+	 * @return the upper bound of the bucket holding that percentile, in
+	 *         microseconds, never more than the recorded maximum
+	 */
+	public long percentile(double p){
+		long count = getCount();
+		if(count == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			seen += this._counts.get(i);
+			if(seen >= rank){
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	static int index(long v){
+		if(v < LINEAR){
+			return (int) v;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(v);
+		int sub = (int) (v >>> (exp - 3)) & (SUB_BUCKETS - 1);
+		return LINEAR + (exp - 4) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int index){
+		if(index < LINEAR){
+			return index;
+		}
+		int exp = (index - LINEAR) / SUB_BUCKETS + 4;
+		int sub = (index - LINEAR) % SUB_BUCKETS;
+		long width = 1L << (exp - 3);
+		return (1L << exp) + (sub + 1) * width - 1;
+	}
+}
@@ -0,0 +1,409 @@
+import java.io.Writer;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class loads the application the way the shop uses it: clerk
+ * sessions looking up customers, opening and closing service requests,
+ * and manager sessions running reports, all at once.  Operations go
+ * through the same methods as the menu, minus the prompts, so caches,
+ * write-behind and the analytics snapshot behave as they do for a clerk.
+ *
+ * In closed loop every session is a virtual thread running one operation
+ * after the other, with an optional think time; throughput is whatever
+ * the sessions reach.  In open loop (rate=n) operations arrive at n per
+ * second, Poisson distributed, whether or not earlier ones are done, and
+ * latency counts from the intended start, so a stall shows up in the
+ * percentiles instead of silently lowering the offered load.
+ *
+ * Per operation the driver reports throughput, latency percentiles,
+ * errors by SQLSTATE, time spent waiting for a pooled connection, and
+ * lock waits: pg_stat_activity is sampled every 100 ms and each backend
+ * waiting on a lock is counted against the operation its statement
+ * belongs to.
+ *
+ */
+
+public class LoadDriver{
+	private static final String[] OPERATIONS = {"lookup", "intake", "close", "report6", "report7", "report8", "report9", "report10"};
+	private static final String CLERK_MIX = "lookup:2,intake:5,close:4";
+	private static final String MANAGER_MIX = "report6:1,report7:1,report8:1,report9:1,report10:1";
+	//rows sampled up front to pick customers, mechanics and open requests from
+	private static final int SAMPLE_SIZE = 1000;
+	private static final int OPEN_REQUEST_SAMPLE_SIZE = 10000;
+	private static final long LOCK_SAMPLE_MILLIS = 100;
+	private static final long PROGRESS_SECONDS = 10;
+	//open loop operations running at most before new ones are dropped
+	private static final int MAX_IN_FLIGHT = Integer.getInteger("load.maxInFlight", 10000);
+	//text identifying the statements of an operation in pg_stat_activity
+	private static final String[][] STATEMENT_MARKERS = {
+		{"open_service_request", "intake"},
+		{"INSERT INTO service_request", "intake"},
+		{"close_service_request", "close"},
+		{"INSERT INTO closed_request", "close"},
+		{"WHERE c.lname = ", "lookup"}
+	};
+
+	/**
+	 * What the driver saw of one operation.
+	 */
+	private static class Stat{
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder errors = new LongAdder();
+		//no open request was left to close, or open loop was saturated
+		final LongAdder skipped = new LongAdder();
+		final LongAdder poolWaitNanos = new LongAdder();
+		final LongAdder lockSamples = new LongAdder();
+		final Map<String, LongAdder> errorStates = new ConcurrentHashMap<String, LongAdder>();
+	}
+
+	private final MechanicShop _esql;
+	private final int _seconds;
+	private final int _clerks;
+	private final int _managers;
+	private final double _rate;
+	private final long _thinkMillis;
+	private final long _seed;
+	private final int _timeoutSeconds;
+	private final int[] _clerkMix;
+	private final int[] _managerMix;
+	private final Map<String, Stat> _stats = new LinkedHashMap<String, Stat>();
+	private final Stat _otherLocks = new Stat();
+
+	//customers owning a car
+	private final List<MechanicShop.Customer> _owners = new ArrayList<MechanicShop.Customer>();
+	private final List<Integer> _mechanics = new ArrayList<Integer>();
+	private final ConcurrentLinkedQueue<Integer> _openRequests = new ConcurrentLinkedQueue<Integer>();
+	private volatile boolean _running = true;
+
+	/**
+	 * @param options duration (seconds), clerks, managers, rate (operations
+	 *        per second, 0 for closed loop), think (milliseconds), seed,
+	 *        timeout (seconds per report), clerkMix and managerMix
+	 *        (operation:weight,...), each optional
+	 */
+	public LoadDriver(MechanicShop esql, Map<String, String> options){
+		this._esql = esql;
+		Map<String, String> o = new TreeMap<String, String>(options);
+		this._seconds = Integer.parseInt(take(o, "duration", "60"));
+		this._clerks = Integer.parseInt(take(o, "clerks", "8"));
+		this._managers = Integer.parseInt(take(o, "managers", "2"));
+		this._rate = Double.parseDouble(take(o, "rate", "0"));
+		this._thinkMillis = Long.parseLong(take(o, "think", "0"));
+		this._seed = Long.parseLong(take(o, "seed", "1"));
+		this._timeoutSeconds = Integer.parseInt(take(o, "timeout", "30"));
+		this._clerkMix = mix(take(o, "clerkMix", CLERK_MIX));
+		this._managerMix = mix(take(o, "managerMix", MANAGER_MIX));
+		if(!o.isEmpty()){
+			throw new IllegalArgumentException("Unknown load options: " + o.keySet());
+		}
+		if(this._seconds <= 0 || this._clerks < 0 || this._managers < 0 || this._clerks + this._managers == 0){
+			throw new IllegalArgumentException("load needs a positive duration and at least one session");
+		}
+		for(String op : OPERATIONS){
+			this._stats.put(op, new Stat());
+		}
+	}
+
+	private static String take(Map<String, String> options, String key, String otherwise){
+		String value = options.remove(key);
+		return value == null ? otherwise : value;
+	}
+
+	/**
+	 * @return the weight of every operation in a mix of operation:weight pairs
+	 */
+	private static int[] mix(String spec){
+		int[] weights = new int[OPERATIONS.length];
+		int total = 0;
+		for(String pair : spec.split(",")){
+			String[] kv = pair.trim().split(":");
+			int op = Arrays.asList(OPERATIONS).indexOf(kv[0]);
+			if(op < 0 || kv.length != 2){
+				throw new IllegalArgumentException("Bad mix entry '" + pair + "', operations are " + String.join(", ", OPERATIONS));
+			}
+			weights[op] = Integer.parseInt(kv[1]);
+			total += weights[op];
+		}
+		if(total <= 0){
+			throw new IllegalArgumentException("Mix has no weight: " + spec);
+		}
+		return weights;
+	}
+
+	/**
+	 * Method to run the load for the configured duration and print what
+	 * it measured.
+	 *
+	 * @throws java.lang.Exception when the sample data can not be read
+	 */
+	public void run() throws Exception {
+		prepare();
+		Thread sampler = Thread.ofPlatform().daemon().name("load-lock-sampler").start(this::sampleLocks);
+		System.out.printf("Running %d clerk(s) and %d manager(s) for %d s, %s\n", this._clerks, this._managers, this._seconds,
+				this._rate > 0 ? "open loop at " + this._rate + " operations/s" : "closed loop");
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(this._seconds);
+		try(ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor()){
+			if(this._rate > 0){
+				sessions.submit(() -> openLoop(sessions, end));
+			}else{
+				for(int s = 0; s < this._clerks + this._managers; s++){
+					int session = s;
+					sessions.submit(() -> closedLoop(session, end));
+				}
+			}
+			progress(start, end);
+		}finally{
+			this._running = false;
+			sampler.interrupt();
+		}
+		report(System.nanoTime() - start);
+	}//end run
+
+	private void prepare() throws SQLException {
+		System.out.println("Sampling customers, mechanics and open requests...");
+		this._owners.addAll(this._esql.executeQueryAndMap("SELECT c.id, c.fname, c.lname FROM customer c " +
+				"WHERE EXISTS (SELECT 1 FROM owns o WHERE o.customer_id = c.id) " +
+				"ORDER BY random() LIMIT ?", MechanicShop.Customer.MAPPER, SAMPLE_SIZE));
+		this._mechanics.addAll(this._esql.executeQueryAndMap("SELECT id FROM mechanic ORDER BY random() LIMIT ?",
+				rs -> rs.getInt(1), SAMPLE_SIZE));
+		this._openRequests.addAll(this._esql.executeQueryAndMap("SELECT s.rid FROM service_request s " +
+				"WHERE NOT EXISTS (SELECT 1 FROM closed_request r WHERE r.rid = s.rid) LIMIT ?",
+				rs -> rs.getInt(1), OPEN_REQUEST_SAMPLE_SIZE));
+		if(this._owners.isEmpty() || this._mechanics.isEmpty()){
+			throw new IllegalStateException("load needs customers owning cars and mechanics, bulkload some data first");
+		}
+		this._esql.getServiceCounter().load(this._esql);
+	}
+
+	private void closedLoop(int session, long end){
+		SplittableRandom random = new SplittableRandom(this._seed * 31 + session);
+		int[] mix = session < this._clerks ? this._clerkMix : this._managerMix;
+		while(this._running && System.nanoTime() < end){
+			int op = pick(mix, random);
+			execute(op, random, System.nanoTime());
+			if(this._thinkMillis > 0){
+				// exponential think time, as arrivals of real clerks
+				LockSupport.parkNanos((long) (-Math.log(1 - random.nextDouble()) * this._thinkMillis * 1e6));
+			}
+		}
+	}
+
+	private void openLoop(ExecutorService sessions, long end){
+		SplittableRandom random = new SplittableRandom(this._seed);
+		Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+		double meanGapNanos = 1e9 / this._rate;
+		long next = System.nanoTime();
+		while(this._running && next < end){
+			long wait = next - System.nanoTime();
+			if(wait > 0){
+				LockSupport.parkNanos(wait);
+			}
+			// arrivals split between clerks and managers by their numbers
+			int[] mix = random.nextInt(this._clerks + this._managers) < this._clerks ? this._clerkMix : this._managerMix;
+			int op = pick(mix, random);
+			if(inFlight.tryAcquire()){
+				long intended = next;
+				SplittableRandom own = random.split();
+				sessions.submit(() -> {
+					try{
+						execute(op, own, intended);
+					}finally{
+						inFlight.release();
+					}
+				});
+			}else{
+				this._stats.get(OPERATIONS[op]).skipped.increment();
+			}
+			next += (long) (-Math.log(1 - random.nextDouble()) * meanGapNanos);
+		}
+	}
+
+	private static int pick(int[] mix, SplittableRandom random){
+		int total = 0;
+		for(int w : mix){
+			total += w;
+		}
+		int r = random.nextInt(total);
+		for(int op = 0; op < mix.length; op++){
+			r -= mix[op];
+			if(r < 0){
+				return op;
+			}
+		}
+		return mix.length - 1;
+	}
+
+	/**
+	 * Method to run one operation and record it.
+	 *
+	 * @param started when the operation was meant to start
+	 */
+	private void execute(int op, SplittableRandom random, long started){
+		String name = OPERATIONS[op];
+		Stat stat = this._stats.get(name);
+		long waited = this._esql.getPool().getThreadWaitNanos();
+		this._esql.getMetrics().beginOperation(name);
+		try{
+			if(!operation(name, random)){
+				stat.skipped.increment();
+				return;
+			}
+		}catch(Exception e){
+			stat.errors.increment();
+			String state = e instanceof SQLException && ((SQLException) e).getSQLState() != null
+					? ((SQLException) e).getSQLState() : e.getClass().getSimpleName();
+			stat.errorStates.computeIfAbsent(state, k -> new LongAdder()).increment();
+		}finally{
+			this._esql.getMetrics().endOperation();
+			stat.poolWaitNanos.add(this._esql.getPool().getThreadWaitNanos() - waited);
+		}
+		stat.latency.recordNanos(System.nanoTime() - started);
+	}
+
+	/**
+	 * @return false when there was nothing to do
+	 */
+	private boolean operation(String name, SplittableRandom random) throws Exception {
+		switch(name){
+			case "lookup":{
+				MechanicShop.Customer owner = this._owners.get(random.nextInt(this._owners.size()));
+				this._esql.findCustomersByLastName(owner.lname());
+				this._esql.findCarsByOwner(owner.id());
+				return true;
+			}
+			case "intake":{
+				// as menu entry 4 for a known customer and car
+				MechanicShop.Customer owner = this._owners.get(random.nextInt(this._owners.size()));
+				this._esql.findCustomersByLastName(owner.lname());
+				int customerId = owner.id();
+				List<MechanicShop.OwnedCar> cars = this._esql.findCarsByOwner(customerId);
+				if(cars.isEmpty()){
+					return false;
+				}
+				MechanicShop.OwnedCar car = cars.get(random.nextInt(cars.size()));
+				int rid = this._esql.nextId(MechanicShop.SERVICE_REQUEST_SEQ);
+				MechanicShop.openServiceRequest(this._esql, rid, customerId, car.vin(), LocalDate.now().toString(),
+						1 + random.nextInt(300000), "Load test", null, null, null, car.make(), car.model());
+				this._openRequests.add(rid);
+				return true;
+			}
+			case "close":{
+				// as menu entry 5, for a request still open
+				Integer rid = this._openRequests.poll();
+				if(rid == null){
+					return false;
+				}
+				int mid = this._mechanics.get(random.nextInt(this._mechanics.size()));
+				int wid = this._esql.nextId(MechanicShop.CLOSED_REQUEST_SEQ);
+				String unknown = MechanicShop.closeServiceRequest(this._esql, wid, rid, mid, LocalDate.now().toString(),
+						"Load test", 1 + random.nextInt(2000));
+				if(unknown != null){
+					throw new SQLException("close_service_request refused " + rid, unknown);
+				}
+				return true;
+			}
+			default:{
+				int report = Integer.parseInt(name.substring("report".length()));
+				try(ResultRenderer out = ResultRenderer.json(Writer.nullWriter())){
+					MechanicShop.renderReport(this._esql, report, report == 9 ? Dashboard.TOP_K : Integer.MAX_VALUE,
+							new QueryControl(this._timeoutSeconds), out);
+				}
+				return true;
+			}
+		}
+	}//end operation
+
+	private void sampleLocks(){
+		while(this._running){
+			try{
+				for(String query : this._esql.executeQueryAndMap("SELECT query FROM pg_stat_activity " +
+						"WHERE wait_event_type = 'Lock' AND datname = current_database()", rs -> rs.getString(1))){
+					lockStat(query).lockSamples.increment();
+				}
+				Thread.sleep(LOCK_SAMPLE_MILLIS);
+			}catch(InterruptedException e){
+				return;
+			}catch(SQLException e){
+				// a busy pool delays the next sample, the load goes on
+			}
+		}
+	}
+
+	private Stat lockStat(String query){
+		if(query != null){
+			for(String[] marker : STATEMENT_MARKERS){
+				if(query.contains(marker[0])){
+					return this._stats.get(marker[1]);
+				}
+			}
+		}
+		return this._otherLocks;
+	}
+
+	private void progress(long start, long end) throws InterruptedException {
+		long count = 0;
+		long errors = 0;
+		long last = start;
+		while(System.nanoTime() < end){
+			long now = System.nanoTime();
+			TimeUnit.NANOSECONDS.sleep(Math.min(end - now, TimeUnit.SECONDS.toNanos(PROGRESS_SECONDS)));
+			now = System.nanoTime();
+			long c = 0, e = 0;
+			for(Stat stat : this._stats.values()){
+				c += stat.latency.getCount();
+				e += stat.errors.sum();
+			}
+			System.out.printf("%6.0f s: %10.1f ops/s, %d error(s)\n", (now - start) / 1e9, (c - count) / ((now - last) / 1e9), e - errors);
+			count = c;
+			errors = e;
+			last = now;
+		}
+	}
+
+	private void report(long nanos){
+		double seconds = nanos / 1e9;
+		System.out.printf("\n%-10s%10s%10s%8s%8s%10s%10s%10s%10s%14s%12s\n", "Operation", "count", "ops/s", "errors", "skipped",
+				"p50 ms", "p90 ms", "p99 ms", "max ms", "pool wait ms", "lock waits");
+		long total = 0;
+		for(Map.Entry<String, Stat> e : this._stats.entrySet()){
+			Stat s = e.getValue();
+			LatencyHistogram h = s.latency;
+			if(h.getCount() == 0 && s.skipped.sum() == 0){
+				continue;
+			}
+			total += h.getCount();
+			System.out.printf("%-10s%10d%10.1f%8d%8d%10.2f%10.2f%10.2f%10.2f%14.1f%12d\n", e.getKey(), h.getCount(), h.getCount() / seconds,
+					s.errors.sum(), s.skipped.sum(), h.percentile(50) / 1e3, h.percentile(90) / 1e3, h.percentile(99) / 1e3,
+					h.getMax() / 1e3, s.poolWaitNanos.sum() / 1e6, s.lockSamples.sum());
+		}
+		System.out.printf("%-10s%10d%10.1f\n", "total", total, total / seconds);
+		for(Map.Entry<String, Stat> e : this._stats.entrySet()){
+			for(Map.Entry<String, LongAdder> state : new TreeMap<String, LongAdder>(e.getValue().errorStates).entrySet()){
+				System.out.println("  " + e.getKey() + " failed " + state.getValue().sum() + " time(s) with " + state.getKey());
+			}
+		}
+		System.out.println("Lock waits are backends seen waiting on a lock, sampled every " + LOCK_SAMPLE_MILLIS + " ms"
+				+ (this._otherLocks.lockSamples.sum() > 0 ? "; " + this._otherLocks.lockSamples.sum() + " more in other statements" : ""));
+		System.out.println(this._esql.getPoolStats());
+		if(this._esql.getWriteBehind() != null){
+			System.out.println(this._esql.getWriteBehind().getStats());
+		}
+	}//end report
+}
@@ -0,0 +1,121 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a bounded read-through cache for small lookup results.
+ * Entries are evicted least recently used first once the cache is full,
+ * and expire a fixed time after they were loaded so changes made by other
+ * processes are picked up.  Writers in this process call invalidate so a
+ * clerk never reads their own stale data; a value loaded while a key was
+ * invalidated is returned but not cached, since it may predate the write.
+ *
+ */
+
+public class LookupCache<K, V>{
+	/**
+	 * Loads the value of a key on a cache miss.
+	 */
+	public interface Loader<K, V>{
+		V load(K key) throws Exception;
+	}
+
+	private static class Entry<V>{
+		final V value;
+		final long expires;
+
+		Entry(V value, long expires){
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	private final String _name;
+	private final int _capacity;
+	private final long _ttlNanos;
+	private final LinkedHashMap<K, Entry<V>> _entries;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _invalidations = 0;
+	//bumped by every invalidation, loads that span one are not cached
+	private long _generation = 0;
+
+	public LookupCache(String name, int capacity, long ttlMillis){
+		this._name = name;
+		this._capacity = capacity;
+		this._ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		// access-ordered, the eldest entry is the least recently used one
+		this._entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	}
+
+	/**
+	 * Method to return the cached value of a key, loading it on a miss or
+	 * after it expired.  The loader runs outside the cache lock.
+	 *
+	 * @param key the lookup key
+	 * @param loader computes the value on a miss
+	 * @return the cached or freshly loaded value
+	 * @throws java.lang.Exception when the loader fails
+	 */
+	public V get(K key, Loader<K, V> loader) throws Exception {
+		long generation;
+		synchronized(this){
+			Entry<V> e = this._entries.get(key);
+			if(e != null && System.nanoTime() - e.expires < 0){
+				this._hits++;
+				return e.value;
+			}
+			this._misses++;
+			generation = this._generation;
+		}
+		V value = loader.load(key);
+		synchronized(this){
+			if(this._generation == generation){
+				put(key, value);
+			}
+		}
+		return value;
+	}//end get
+
+	public synchronized void put(K key, V value){
+		this._entries.put(key, new Entry<V>(value, System.nanoTime() + this._ttlNanos));
+		if(this._entries.size() > this._capacity){
+			evict();
+		}
+	}
+
+	/**
+	 * Method to drop the cached value of a key after it was written.
+	 */
+	public synchronized void invalidate(K key){
+		this._generation++;
+		if(this._entries.remove(key) != null){
+			this._invalidations++;
+		}
+	}
+
+	public synchronized void clear(){
+		this._generation++;
+		this._entries.clear();
+	}
+
+	public synchronized String getStats(){
+		long lookups = this._hits + this._misses;
+		return String.format("%s cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations",
+				this._name, this._entries.size(), this._capacity, this._hits, this._misses,
+				lookups == 0 ? 0.0 : 100.0 * this._hits / lookups, this._evictions, this._invalidations);
+	}
+
+	private void evict(){
+		// expired entries are replaced on their next lookup, only the least
+		// recently used ones are dropped here
+		Iterator<Map.Entry<K, Entry<V>>> lru = this._entries.entrySet().iterator();
+		while(this._entries.size() > this._capacity && lru.hasNext()){
+			lru.next();
+			lru.remove();
+			this._evictions++;
+		}
+	}
+}
@@ -14,15 +14,23 @@
 import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Set;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -31,8 +39,45 @@ import java.util.ArrayList;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//pool of physical database connections shared by every session
+	private ConnectionPool _pool = null;
+	//rows fetched per round trip by streamed queries
+	static final int STREAM_FETCH_SIZE = Integer.getInteger("query.fetchSize", 500);
+	//sequences backing the generated keys, see V2__key_sequences.sql
+	static final String CUSTOMER_SEQ = "customer_id_seq";
+	static final String OWNS_SEQ = "owns_ownership_id_seq";
+	static final String SERVICE_REQUEST_SEQ = "service_request_rid_seq";
+	static final String CLOSED_REQUEST_SEQ = "closed_request_wid_seq";
+	//block allocating key generators, one per sequence
+	private final Map<String, IdGenerator> _idGenerators = new ConcurrentHashMap<String, IdGenerator>();
+	//years whose request partitions are known to exist, see ensurePartitions
+	private final Set<Integer> _partitionYears = ConcurrentHashMap.newKeySet();
+	//per-customer bill totals computed from scratch, see customer_bill_total
+	static final String BILL_TOTALS_QUERY = "SELECT o.customer_id, SUM(r.bill) total_bill " +
+			"FROM owns o, service_request s, closed_request r " +
+			"WHERE o.car_vin = s.car_vin AND r.rid = s.rid " +
+			"GROUP BY o.customer_id";
+	//read-through caches for the lookups of the service request intake
+	private final LookupCache<String, List<Customer>> _customersByLastName = new LookupCache<String, List<Customer>>(
+			"Customer by last name", Integer.getInteger("lookup.cacheSize", 1000), Long.getLong("lookup.ttlMs", 60000L));
+	private final LookupCache<Integer, List<OwnedCar>> _carsByOwner = new LookupCache<Integer, List<OwnedCar>>(
+			"Car by owner", Integer.getInteger("lookup.cacheSize", 1000), Long.getLong("lookup.ttlMs", 60000L));
+	//service requests per make and model, answers ListKCarsWithTheMostServices
+	private final ServiceCounter _serviceCounter = new ServiceCounter();
+	//columnar copy answering reports 6 to 10, null while they run as SQL
+	private volatile AnalyticsSnapshot _analytics = null;
+	//rows of reports 6 to 10 run as SQL, dropped when a table they read is written
+	private final ReportCache _reportCache = new ReportCache(Long.getLong("reportCache.maxBytes", 64L << 20));
+	//journaled queue the request inserts go through, null when they are synchronous
+	private WriteBehindQueue _writeBehind = null;
+	//statement and operation latencies, see the Stats menu entry
+	private Metrics _metrics = null;
+	//menu operation each choice is recorded under, null for those not timed
+	private static final String[] OPERATIONS = {null,
+		"AddCustomer", "AddMechanic", "AddCar", "InsertServiceRequest", "CloseServiceRequest",
+		"ListCustomersWithBillLessThan100", "ListCustomersWithMoreThan20Cars", "ListCarsBefore1995With50000Milles",
+		"ListKCarsWithTheMostServices", "ListCustomersInDescendingOrderOfTheirTotalBill", null,
+		"ReconcileCustomerBillTotals", "CheckServiceCounter", null, "ExportReport", null, "AnalyticsSnapshot", "SearchRequests"};
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
@@ -42,8 +87,12 @@ public class MechanicShop{
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			// open the connection pool, sized by -Dpool.min / -Dpool.max
+	        this._pool = new ConnectionPool(url, user, passwd,
+	        		Integer.getInteger("pool.min", 1), Integer.getInteger("pool.max", 8),
+	        		Long.getLong("pool.idleTimeoutMs", 60000L), Long.getLong("pool.borrowTimeoutMs", 30000L));
+	        this._metrics = new Metrics(this._pool, Long.getLong("metrics.slowQueryMs", 500L),
+	        		System.getProperty("metrics.slowQueryLog", "slow_queries.log"));
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -60,16 +109,53 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		try{
+			// creates a statement object
+			Statement stmt = pc.getConnection ().createStatement ();
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+			// issues the update instruction
+			rowCount = stmt.executeUpdate (sql);
 
-		// close the instruction
-	    stmt.close ();
+			// close the instruction
+		    stmt.close ();
+		    failed = false;
+		}finally{
+			record (sql, NO_PARAMS, start, rowCount, 0, failed);
+			this._pool.release (pc);
+		}
 	}//end executeUpdate
 
+	/**
+	 * Method to execute a parameterized update SQL statement (INSERT, UPDATE
+	 * or DELETE).  The statement is prepared once and kept in the statement
+	 * cache, so repeated calls skip parsing and planning.
+	 * 
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executePreparedUpdate (String sql, Object... params) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		int rowCount = 0;
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = pc.getStatements ().prepare (sql);
+			bindParams (stmt, params);
+			rowCount = stmt.executeUpdate ();
+			failed = false;
+			return rowCount;
+		}finally{
+			record (sql, params, start, rowCount, 0, failed);
+			this._pool.release (pc);
+		}
+	}//end executePreparedUpdate
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
@@ -80,37 +166,33 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
 		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+		boolean failed = true;
+		ResultRenderer out = ResultRenderer.text ();
+		try{
+			//creates a statement object
+			Statement stmt = pc.getConnection ().createStatement ();
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery (query);
+
+			//iterates through the result set and output them to standard out.
+			while (rs.next()){
+				out.handleRow (rs);
+				++rowCount;
+			}//end while
+			stmt.close ();
+			out.close ();
+			failed = false;
+			return rowCount;
+		}catch(IOException e){
+			throw new SQLException (e);
+		}finally{
+			record (query, NO_PARAMS, start, rowCount, out.getCharCount (), failed);
+			this._pool.release (pc);
+		}
 	}
 	
 	/**
@@ -123,32 +205,252 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		List<List<String>> result  = new ArrayList<List<String>>(); 
+		boolean failed = true;
+		try{
+			//creates a statement object 
+			Statement stmt = pc.getConnection ().createStatement (); 
 		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (query); 
 	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+			int rowCount = 0; 
 	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+			//iterates through the result set and saves the data returned by the query. 
+			boolean outputHeader = false;
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i) 
+					record.add(rs.getString (i)); 
+				result.add(record); 
+			}//end while 
+			stmt.close (); 
+			failed = false;
+			return result; 
+		}finally{
+			record (query, NO_PARAMS, start, result.size (), bytesOf (result), failed);
+			this._pool.release (pc);
+		}
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+	 * through the statement cache.  Returns the results as a list of records,
+	 * the same way executeQueryAndReturnResult does.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders, in order
+	 * @return the query result as a list of records
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<List<String>> executePreparedQuery (String query, Object... params) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		List<List<String>> result  = new ArrayList<List<String>>();
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = pc.getStatements ().prepare (query);
+			bindParams (stmt, params);
+
+			ResultSet rs = stmt.executeQuery ();
+			int numCol = rs.getMetaData ().getColumnCount ();
+
+			while (rs.next()){
+				List<String> record = new ArrayList<String>();
+				for (int i=1; i<=numCol; ++i)
+					record.add(rs.getString (i));
+				result.add(record);
+			}//end while
+			rs.close ();
+			failed = false;
+			return result;
+		}finally{
+			record (query, params, start, result.size (), bytesOf (result), failed);
+			this._pool.release (pc);
+		}
+	}//end executePreparedQuery
+
+	/**
+	 * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+	 * through the statement cache and map every row to a typed value.
+	 * Numbers and dates are read as such, so nothing is formatted into a
+	 * String only to be parsed back by the caller.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param mapper turns the current row into a value
+	 * @param params the values bound to the placeholders, in order
+	 * @return the mapped rows, in order
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public <T> List<T> executeQueryAndMap (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		List<T> result = new ArrayList<T>();
+		long bytes = 0;
+		boolean failed = true;
+		try{
+			PreparedStatement stmt = pc.getStatements ().prepare (query);
+			bindParams (stmt, params);
+
+			ResultSet rs = stmt.executeQuery ();
+			int columns = rs.getMetaData ().getColumnCount ();
+			while (rs.next()){
+				result.add(mapper.map (rs));
+				bytes += rowBytes (rs, columns);
+			}
+			rs.close ();
+			failed = false;
+			return result;
+		}finally{
+			record (query, params, start, result.size (), bytes, failed);
+			this._pool.release (pc);
+		}
+	}//end executeQueryAndMap
+
+	/**
+	 * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+	 * and hand each row to a callback as it arrives.  Autocommit is turned
+	 * off and a fetch size is set so the PostgreSQL driver reads the result
+	 * through a server-side cursor, one batch of rows at a time, instead of
+	 * materializing the whole result in memory.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param handler the callback receiving each row
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStreamResult (String query, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryAndStreamResult (query, null, handler, params);
+	}//end executeQueryAndStreamResult
+
+	/**
+	 * Method to stream a query the way executeQueryAndStreamResult does,
+	 * under a timeout and cancellable from another thread.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param control the timeout and cancellation, null for none
+	 * @param handler the callback receiving each row
+	 * @param params the values bound to the placeholders, in order
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query, ran
+	 *         out of time or was cancelled
+	 */
+	public int executeQueryAndStreamResult (String query, QueryControl control, RowHandler handler, Object... params) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		// a renderer may be reused, only this query's characters count
+		long chars = handler.getCharCount ();
+		int rowCount = 0;
+		boolean failed = true;
+		try{
+			Connection conn = pc.getConnection ();
+			// cursors only exist inside a transaction
+			conn.setAutoCommit (false);
+			PreparedStatement stmt = pc.getStatements ().prepare (query);
+			stmt.setFetchSize (STREAM_FETCH_SIZE);
+			bindParams (stmt, params);
+
+			if (control != null)
+				control.attach (stmt);
+			try{
+				ResultSet rs = stmt.executeQuery ();
+				handler.start (rs.getMetaData ());
+				while (rs.next()){
+					handler.handleRow (rs);
+					++rowCount;
+					// a cancel between two fetches reaches an idle server
+					if (control != null && rowCount % STREAM_FETCH_SIZE == 0)
+						control.checkCancelled ();
+				}//end while
+				rs.close ();
+			}finally{
+				if (control != null)
+					control.detach (stmt);
+			}
+			conn.commit ();
+			conn.setAutoCommit (true);
+			failed = false;
+			return rowCount;
+		}finally{
+			// the rows are never held, the handler measures what it read;
+			// the time includes the handler, which overlaps the fetches
+			record (query, params, start, rowCount, handler.getCharCount () - chars, failed);
+			this._pool.release (pc);
+		}
+	}//end executeQueryAndStreamResult
+
+	static void bindParams (PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i)
+			stmt.setObject (i + 1, params[i]);
+	}
+
+	private static final Object[] NO_PARAMS = new Object[0];
+	//shape every executeTransaction call is recorded under
+	private static final String TRANSACTION = "(transaction)";
+
+	private void record (String sql, Object[] params, long start, long rows, long bytes, boolean failed){
+		this._metrics.recordStatement (sql, params, System.nanoTime () - start, rows, bytes, failed);
+		// a failed statement may still have written part of a transaction
+		if (sql != TRANSACTION)
+			this._reportCache.written (sql);
+	}
+
+	/**
+	 * @return the size of the current row as the driver received it; typed
+	 *         values have no String length, and the raw column values are
+	 *         returned without decoding them again
+	 */
+	private static long rowBytes (ResultSet rs, int columns) throws SQLException {
+		long bytes = 0;
+		for (int i = 1; i <= columns; ++i){
+			byte[] value = rs.getBytes (i);
+			if (value != null)
+				bytes += value.length;
+		}
+		return bytes;
+	}
+
+	private static long bytesOf (List<List<String>> result){
+		long bytes = 0;
+		for (List<String> record : result)
+			for (String value : record)
+				bytes += value == null ? 0 : value.length ();
+		return bytes;
+	}
+
+	public Metrics getMetrics(){
+		return this._metrics;
+	}
+
+	/**
+	 * @return number of statements served from the statement caches
+	 */
+	public long getStatementCacheHits(){
+		return this._pool.getStatementCacheHits();
+	}
+
+	/**
+	 * @return number of statements that had to be prepared
+	 */
+	public long getStatementCacheMisses(){
+		return this._pool.getStatementCacheMisses();
+	}
+
+	/**
+	 * @return a one line summary of the connection pool metrics
+	 */
+	public String getPoolStats(){
+		return this._pool.getStats();
+	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -159,20 +461,28 @@ public class MechanicShop{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
 		int rowCount = 0;
+		boolean failed = true;
+		try{
+			//creates a statement object
+			Statement stmt = pc.getConnection ().createStatement ();
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery (query);
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			stmt.close ();
+			failed = false;
+			return rowCount;
+		}finally{
+			record (query, NO_PARAMS, start, rowCount, 0, failed);
+			this._pool.release (pc);
+		}
 	}
 	
 	/**
@@ -186,24 +496,241 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		String query = String.format("Select currval('%s')", sequence);
+		long start = System.nanoTime ();
+		boolean failed = true;
+		try{
+			Statement stmt = pc.getConnection ().createStatement ();
 		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+			ResultSet rs = stmt.executeQuery (query);
+			int value = rs.next() ? rs.getInt(1) : -1;
+			failed = false;
+			return value;
+		}finally{
+			record (query, NO_PARAMS, start, 1, 0, failed);
+			this._pool.release (pc);
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * A customer found by last name, the names without their CHAR padding.
 	 */
-	public void cleanup(){
+	public record Customer(int id, String fname, String lname){
+		static final RowMapper<Customer> MAPPER = rs -> new Customer(rs.getInt (1),
+				rs.getString (2).stripTrailing (), rs.getString (3).stripTrailing ());
+	}
+
+	/**
+	 * A car found by its owner.
+	 */
+	public record OwnedCar(String vin, String make, String model, int year){
+		static final RowMapper<OwnedCar> MAPPER = rs -> new OwnedCar(rs.getString (1), rs.getString (2),
+				rs.getString (3), rs.getInt (4));
+	}
+
+	/**
+	 * Method to look up the customers with a last name through the lookup
+	 * cache.
+	 * 
+	 * @param lname the last name
+	 * @return the customers, not to be modified
+	 * @throws java.lang.Exception when failed to execute the query
+	 */
+	public List<Customer> findCustomersByLastName (String lname) throws Exception {
+		// lname is CHAR(32), trailing blanks do not change what matches
+		return this._customersByLastName.get(lname.stripTrailing(), key -> Collections.unmodifiableList(
+				executeQueryAndMap("SELECT c.id, c.fname, c.lname " +
+						"FROM customer c " +
+						"WHERE c.lname = ?", Customer.MAPPER, key)));
+	}
+
+	/**
+	 * Method to look up the cars a customer owns through the lookup cache.
+	 * 
+	 * @param customerId the owner
+	 * @return the cars, not to be modified
+	 * @throws java.lang.Exception when failed to execute the query
+	 */
+	public List<OwnedCar> findCarsByOwner (int customerId) throws Exception {
+		return this._carsByOwner.get(customerId, key -> Collections.unmodifiableList(
+				executeQueryAndMap("SELECT c.vin, c.make, c.model, c.year " +
+						"FROM owns o, car c " +
+						"WHERE c.vin = o.car_vin AND o.customer_id = ?", OwnedCar.MAPPER, key)));
+	}
+
+	/**
+	 * Method to drop the cached customers of a last name after one was added.
+	 */
+	public void invalidateCustomersByLastName (String lname){
+		this._customersByLastName.invalidate(lname.stripTrailing());
+	}
+
+	/**
+	 * Method to drop the cached cars of an owner after their ownership changed.
+	 */
+	public void invalidateCarsByOwner (int customerId){
+		this._carsByOwner.invalidate(customerId);
+	}
+
+	/**
+	 * Method to drop the cached reports reading the tables a statement
+	 * writes.  Statements run through the execute methods are seen already;
+	 * those run on a borrowed connection, such as in executeTransaction,
+	 * are passed here once committed.
+	 * 
+	 * @param sql the statement, or its leading keyword and table
+	 */
+	public void invalidateReports (String sql){
+		this._reportCache.written(sql);
+	}
+
+	public ReportCache getReportCache(){
+		return this._reportCache;
+	}
+
+	public String getLookupCacheStats(){
+		return this._customersByLastName.getStats() + "\n" + this._carsByOwner.getStats();
+	}
+
+	/**
+	 * Method to run a unit of work as one transaction on a single pooled
+	 * connection.  The work commits when the callback returns and rolls
+	 * back when it throws.
+	 * 
+	 * @param work the statements to run
+	 * @return the value returned by the callback
+	 * @throws java.sql.SQLException when the work or the commit failed
+	 */
+	public <T> T executeTransaction (TransactionCallback<T> work) throws SQLException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow ();
+		long start = System.nanoTime ();
+		boolean failed = true;
 		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+			Connection conn = pc.getConnection ();
+			conn.setAutoCommit (false);
+			T result = work.run (pc);
+			conn.commit ();
+			conn.setAutoCommit (true);
+			failed = false;
+			return result;
+		}finally{
+			// the statements of the callback are timed as one unit
+			record (TRANSACTION, NO_PARAMS, start, 0, 0, failed);
+			// rolls back whatever was not committed
+			this._pool.release (pc);
+		}
+	}//end executeTransaction
+
+	/**
+	 * Method to apply pending schema migrations (see SchemaMigrator).  The
+	 * scripts are read from -Dschema.dir, by default the sql directory next
+	 * to the java directory run.sh starts from.
+	 * 
+	 * @return the schema version after migrating
+	 * @throws java.lang.Exception when a migration fails
+	 */
+	public int migrateSchema() throws Exception {
+		File sqlDir = new File(System.getProperty("schema.dir", "../sql"));
+		return new SchemaMigrator(this._pool, sqlDir).migrate();
+	}
+
+	/**
+	 * Method to create the request partitions of this year and the next
+	 * ahead of time, so the first writes of a new year do not create them.
+	 * 
+	 * @throws java.sql.SQLException when failed to create a partition
+	 */
+	public void ensurePartitions() throws SQLException {
+		ensurePartitions(LocalDate.now(), LocalDate.now().plusYears(1));
+	}
+
+	/**
+	 * Method to create the request partitions of the years a range of dates
+	 * falls in, before inserting into service_request or closed_request
+	 * directly; the request functions create them on their own.  Years this
+	 * process already ensured are not asked for again.
+	 * 
+	 * @throws java.sql.SQLException when failed to create a partition
+	 */
+	public void ensurePartitions(LocalDate from, LocalDate to) throws SQLException {
+		boolean known = true;
+		for (int year = from.getYear(); year <= to.getYear() && known; ++year)
+			known = this._partitionYears.contains(year);
+		if (known)
+			return;
+		executePreparedQuery("SELECT ensure_request_partitions(?, ?)", java.sql.Date.valueOf(from), java.sql.Date.valueOf(to));
+		for (int year = from.getYear(); year <= to.getYear(); ++year)
+			this._partitionYears.add(year);
+	}
+
+	ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	public ServiceCounter getServiceCounter(){
+		return this._serviceCounter;
+	}
+
+	/**
+	 * @return the snapshot reports 6 to 10 are computed from, null when
+	 *         they run as SQL
+	 */
+	public AnalyticsSnapshot getAnalytics(){
+		return this._analytics;
+	}
+
+	public void setAnalytics(AnalyticsSnapshot analytics){
+		this._analytics = analytics;
+	}
+
+	/**
+	 * @return the queue service and closed request inserts are written
+	 *         behind, null when they run synchronously
+	 */
+	public WriteBehindQueue getWriteBehind(){
+		return this._writeBehind;
+	}
+
+	/**
+	 * Method to send request inserts through a write-behind queue.  The
+	 * journal is replayed first, so inserts acknowledged before a crash are
+	 * written before anything new.
+	 * 
+	 * @param journal the journal file of the queue
+	 * @throws java.lang.Exception when the journal can not be replayed
+	 */
+	public void startWriteBehind(File journal) throws Exception {
+		this._writeBehind = WriteBehindQueue.open(this, journal);
+	}
+
+	/**
+	 * Method to generate a new primary key from a sequence.  Keys are
+	 * reserved in blocks, so most calls do not touch the database.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return a key unique across every session
+	 * @throws java.sql.SQLException when failed to read the sequence
+	 */
+	public int nextId(String sequence) throws SQLException {
+		return this._idGenerators.computeIfAbsent(sequence, seq -> new IdGenerator(this, seq)).nextId();
+	}
+
+	/**
+	 * Method to close the pooled physical connections if they are open.
+	 */
+	public void cleanup(){
+		if (this._writeBehind != null){
+			// writes what is still queued while the pool is open
+			this._writeBehind.close ();
+		}//end if
+		this._reportCache.close ();
+		if (this._metrics != null){
+			this._metrics.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -212,10 +739,10 @@ public class MechanicShop{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [bulkload <datadir|--scale=<n>> [--truncate] [--seed=<n>] | generate <dir> <scale> [--seed=<n>] | batch <file> [batchsize] | export <report> <file.csv|file.json> [k] [from=<date>] [to=<date>] | archive <date> | serve [port] | load [option=value ...]]");
 			return;
 		}//end if
 		
@@ -239,9 +766,34 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+			System.out.println("Schema at version " + esql.migrateSchema ());
+			esql.ensurePartitions ();
+			if (Boolean.getBoolean("writeBehind")) {
+				esql.startWriteBehind(new File(System.getProperty("writeBehind.journal", "write_behind.journal")));
+			}
+			if (Boolean.getBoolean("reportCache.notify") && esql.getReportCache().isEnabled()) {
+				// hears the writes of other processes, see V9__report_cache_notify.sql
+				esql.getReportCache().listen(esql.getPool());
+			}
+
+			if (args.length > 3) {
+				// non-interactive modes run once and exit
+				runMode (esql, args);
+				return;
+			}//end if
+			esql.getServiceCounter().load(esql);
+			if (Boolean.getBoolean("analytics.snapshot")) {
+				esql.setAnalytics(AnalyticsSnapshot.load(esql));
+				System.out.println(esql.getAnalytics().getStats());
+			}
 			
 			boolean keepon = true;
 			while(keepon){
+				if(esql.getWriteBehind() != null && esql.getWriteBehind().getRejectedCount() > 0){
+					// acknowledged inserts the database refused, for the clerk to redo
+					System.out.println(esql.getWriteBehind().getRejectedCount() + " queued insert(s) were rejected, see "
+							+ esql.getWriteBehind().getRejectedFile().getPath());
+				}
 				System.out.println("MAIN MENU");
 				System.out.println("---------");
 				System.out.println("1. AddCustomer");
@@ -255,22 +807,44 @@ public class MechanicShop{
 				System.out.println("9. ListKCarsWithTheMostServices");
 				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
 				System.out.println("11. < EXIT");
+				System.out.println("12. ReconcileCustomerBillTotals");
+				System.out.println("13. CheckServiceCounter");
+				System.out.println("14. Stats");
+				System.out.println("15. ExportReport");
+				System.out.println("16. Dashboard");
+				System.out.println("17. AnalyticsSnapshot");
+				System.out.println("18. SearchRequests");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
 				 */
-				switch (readChoice()){
-					case 1: AddCustomer(esql, null); break;
-					case 2: AddMechanic(esql); break;
-					case 3: AddCar(esql, null); break;
-					case 4: InsertServiceRequest(esql); break;
-					case 5: CloseServiceRequest(esql); break;
-					case 6: ListCustomersWithBillLessThan100(esql); break;
-					case 7: ListCustomersWithMoreThan20Cars(esql); break;
-					case 8: ListCarsBefore1995With50000Milles(esql); break;
-					case 9: ListKCarsWithTheMostServices(esql); break;
-					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
+				int choice = readChoice();
+				// only database time is attributed to the operation, prompts are not
+				if (choice > 0 && choice < OPERATIONS.length && OPERATIONS[choice] != null)
+					esql.getMetrics().beginOperation(OPERATIONS[choice]);
+				try{
+					switch (choice){
+						case 1: AddCustomer(esql, null); break;
+						case 2: AddMechanic(esql); break;
+						case 3: AddCar(esql, null); break;
+						case 4: InsertServiceRequest(esql); break;
+						case 5: CloseServiceRequest(esql); break;
+						case 6: ListCustomersWithBillLessThan100(esql); break;
+						case 7: ListCustomersWithMoreThan20Cars(esql); break;
+						case 8: ListCarsBefore1995With50000Milles(esql); break;
+						case 9: ListKCarsWithTheMostServices(esql); break;
+						case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
+						case 11: keepon = false; break;
+						case 12: ReconcileCustomerBillTotals(esql); break;
+						case 13: CheckServiceCounter(esql); break;
+						case 14: Stats(esql); break;
+						case 15: ExportReport(esql); break;
+						case 16: Dashboard(esql); break;
+						case 17: AnalyticsSnapshot(esql); break;
+						case 18: SearchRequests(esql); break;
+					}
+				}finally{
+					esql.getMetrics().endOperation();
 				}
 			}
 		}catch(Exception e){
@@ -278,6 +852,9 @@ public class MechanicShop{
 		}finally{
 			try{
 				if(esql != null) {
+					System.out.println("Statement cache: " + esql.getStatementCacheHits() + " hits, " + esql.getStatementCacheMisses() + " misses");
+					System.out.println(esql.getLookupCacheStats());
+					System.out.println(esql.getPoolStats());
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
@@ -288,6 +865,112 @@ public class MechanicShop{
 		}
 	}
 
+	/**
+	 * Method to run one of the non-interactive modes named after the
+	 * connection arguments.
+	 * 
+	 * @param args the command line arguments
+	 */
+	public static void runMode (MechanicShop esql, String[] args) throws Exception {
+		switch (args[3]){
+			case "bulkload":
+				if (args.length < 5) {
+					throw new IllegalArgumentException("bulkload needs the directory holding the csv files");
+				}
+				boolean truncate = false;
+				long seed = DataGenerator.DEFAULT_SEED;
+				for (int i = 5; i < args.length; i++) {
+					if (args[i].equals("--truncate"))
+						truncate = true;
+					else if (args[i].startsWith("--seed="))
+						seed = Long.parseLong(args[i].substring(7));
+					else
+						throw new IllegalArgumentException("Unknown bulkload option: " + args[i]);
+				}
+				if (args[4].startsWith("--scale=")) {
+					// generated rows go straight into COPY
+					try (DataGenerator generator = new DataGenerator(Double.parseDouble(args[4].substring(8)), seed)) {
+						new BulkLoader(esql, generator).load(truncate);
+					}
+				} else {
+					new BulkLoader(esql, new File(args[4])).load(truncate);
+				}
+				break;
+			case "generate":
+				if (args.length < 6) {
+					throw new IllegalArgumentException("generate needs the directory to write and the scale (1 = the bundled data)");
+				}
+				long generatorSeed = args.length > 6 && args[6].startsWith("--seed=") ? Long.parseLong(args[6].substring(7)) : DataGenerator.DEFAULT_SEED;
+				try (DataGenerator generator = new DataGenerator(Double.parseDouble(args[5]), generatorSeed)) {
+					generator.write(new File(args[4]));
+				}
+				break;
+			case "batch":
+				if (args.length < 5) {
+					throw new IllegalArgumentException("batch needs the command file to run");
+				}
+				int batchSize = args.length > 5 ? Integer.parseInt(args[5]) : BatchRunner.DEFAULT_BATCH_SIZE;
+				new BatchRunner(esql, batchSize).run(new File(args[4]));
+				break;
+			case "export":
+				if (args.length < 6) {
+					throw new IllegalArgumentException("export needs the report number (6-10) and the file to write");
+				}
+				int report = Integer.parseInt(args[4]);
+				if (report == 9) {
+					esql.getServiceCounter().load(esql);
+				}
+				// optional k, from=yyyy-MM-dd and to=yyyy-MM-dd in any order
+				int k = Integer.MAX_VALUE;
+				String from = null, to = null;
+				for (int i = 6; i < args.length; i++) {
+					if (args[i].startsWith("from="))
+						from = args[i].substring(5);
+					else if (args[i].startsWith("to="))
+						to = args[i].substring(3);
+					else
+						k = Integer.parseInt(args[i]);
+				}
+				exportReport(esql, report, k, DateRange.parse(from, to), args[5]);
+				break;
+			case "archive":
+				if (args.length < 5) {
+					throw new IllegalArgumentException("archive needs the date (yyyy-MM-dd) the archived years end by");
+				}
+				for (String table : esql.executeQueryAndMap("SELECT detach_request_partitions(?)", rs -> rs.getString (1), java.sql.Date.valueOf(args[4])))
+					System.out.println("Detached " + table);
+				break;
+			case "serve":
+				esql.getServiceCounter().load(esql);
+				if (Boolean.getBoolean("analytics.snapshot")) {
+					esql.setAnalytics(AnalyticsSnapshot.load(esql));
+				}
+				try (HttpApi api = new HttpApi(esql, args.length > 4 ? Integer.parseInt(args[4]) : Integer.getInteger("http.port", 8080))) {
+					api.start();
+					System.out.println("Serving on http://localhost:" + api.getPort() + "/, press Enter to stop");
+					if (in.readLine() == null) {
+						// no console, serve until the process is killed
+						Thread.currentThread().join();
+					}
+				}
+				break;
+			case "load":
+				// duration=, clerks=, managers=, rate=, think=, clerkMix=, ...
+				Map<String, String> options = new HashMap<String, String>();
+				for (int i = 4; i < args.length; i++) {
+					int eq = args[i].indexOf('=');
+					if (eq < 0) {
+						throw new IllegalArgumentException("load options are name=value: " + args[i]);
+					}
+					options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+				}
+				new LoadDriver(esql, options).run();
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown mode: " + args[3]);
+		}
+	}//end runMode
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
@@ -322,40 +1005,44 @@ public class MechanicShop{
 	
 	public static void AddCustomer(MechanicShop esql, String lname){//1
 		//completed by SamT
-		String fname, phone, address;
 		int id;
 		String query;
-		List<List<String>> result  = new ArrayList<List<String>>();
 		try{
 			System.out.println("--------Add Customer--------");
-			query = "SELECT COUNT(id) "+
-					"FROM customer";
-			result = esql.executeQueryAndReturnResult(query);
-			id = Integer.parseInt(result.get(0).get(0));
+			id = esql.nextId(CUSTOMER_SEQ);
 			// System.out.println("Enter Customer ID:");
 			// id = getInt();
-			System.out.println("Enter first name:");
-			fname = in.readLine();
-			if(lname == null){
-				System.out.println("Enter last name:");
-				lname = in.readLine();
-			}
-			System.out.println("Enter phone number:");
-			phone = in.readLine();
-			System.out.println("Enter address number:");
-			address = in.readLine();
-			query = "INSERT INTO customer VALUES("+id+", '"+fname+"', '"+lname+"', '"+phone+"', '"+address+"')";
-			System.out.println(query);
-			esql.executeUpdate(query);
+			String[] customer = readCustomer(lname);
+			query = "INSERT INTO customer VALUES(?, ?, ?, ?, ?)";
+			esql.executePreparedUpdate(query, id, customer[0], customer[1], customer[2], customer[3]);
+			esql.invalidateCustomersByLastName(customer[1]);
 		}catch(Exception e){
 			System.err.println (e.getMessage());
 		}
 	}
+
+	/**
+	 * @return first name, last name, phone and address read from the
+	 *         console, lname when it is known already
+	 */
+	static String[] readCustomer(String lname) throws IOException {
+		System.out.println("Enter first name:");
+		String fname = in.readLine();
+		if(lname == null){
+			System.out.println("Enter last name:");
+			lname = in.readLine();
+		}
+		System.out.println("Enter phone number:");
+		String phone = in.readLine();
+		System.out.println("Enter address number:");
+		String address = in.readLine();
+		return new String[]{fname, lname, phone, address};
+	}
 	
 	public static void AddMechanic(MechanicShop esql){//2
 		//completed by SamT
-		String fname, lname, experience;
-		int id;
+		String fname, lname;
+		int id, experience;
 		try{
 			System.out.println("--------Add Mechanic--------");
 			System.out.println("Enter Mechanic ID:");
@@ -365,120 +1052,122 @@ public class MechanicShop{
 			System.out.println("Enter last name:");
 			lname = in.readLine();
 			System.out.println("Enter experience:");
-			experience = in.readLine();
-			String query = "INSERT INTO mechanic VALUES("+id+", '"+fname+"', '"+lname+"', '"+experience+"')";
-			System.out.println(query);
-			esql.executeUpdate(query);
+			experience = getInt();
+			String query = "INSERT INTO mechanic VALUES(?, ?, ?, ?)";
+			esql.executePreparedUpdate(query, id, fname, lname, experience);
 		}catch(Exception e){
 			System.err.println (e.getMessage());
 		}
 		
 	}
 	   
-	public static void AddCar(MechanicShop esql, String vin){//3
+	/**
+	 * @return the make and model of the added car, null when it was not added
+	 */
+	public static String[] AddCar(MechanicShop esql, String vin){//3
 		//completed by SamT
-		String make, model;
-		int year;
-		
 		try{
 			System.out.println("--------Add Car--------");
 			if(vin == null){
 				System.out.println("Enter Car vin:");
 				vin = in.readLine();
 			}
-			System.out.println("Enter Car make:");
-			make = in.readLine();
-			System.out.println("Enter Car model:");
-			model = in.readLine();
-			System.out.println("Enter Car year:");
-			year = getInt();
-			String query = "INSERT INTO car VALUES('"+vin+"', '"+make+"', '"+model+"', '"+year+"')";
-			System.out.println(query);
-			esql.executeUpdate(query);
+			Object[] car = readCar();
+			String query = "INSERT INTO car VALUES(?, ?, ?, ?)";
+			esql.executePreparedUpdate(query, vin, car[0], car[1], car[2]);
+			return new String[]{(String) car[0], (String) car[1]};
 		}catch(Exception e){
 			System.err.println (e.getMessage());
+			return null;
 		}
 	}
+
+	/**
+	 * @return make, model and year read from the console
+	 */
+	static Object[] readCar() throws IOException {
+		System.out.println("Enter Car make:");
+		String make = in.readLine();
+		System.out.println("Enter Car model:");
+		String model = in.readLine();
+		System.out.println("Enter Car year:");
+		int year = getInt();
+		return new Object[]{make, model, year};
+	}
 	
+	//the writes of one intake in a single statement, see V6__request_functions.sql
+	private static final String OPEN_REQUEST_QUERY = "SELECT car_make, car_model FROM open_service_request(" +
+			"?::integer, ?::integer, ?::varchar, ?::date, ?::integer, ?::text, " +
+			"?::bpchar, ?::bpchar, ?::bpchar, ?::bpchar, ?::varchar, ?::varchar, ?::integer, ?::integer)";
+	private static final String CLOSE_REQUEST_QUERY = "SELECT close_service_request(" +
+			"?::integer, ?::integer, ?::integer, ?::date, ?::text, ?::integer)";
+	//SQLSTATEs close_service_request raises for an unknown request and mechanic
+	static final String UNKNOWN_REQUEST = "MS001";
+	static final String UNKNOWN_MECHANIC = "MS002";
+
 	public static void InsertServiceRequest(MechanicShop esql){//4
 		//completed by SamT
 		String car_vin, date, complain;
+		String make = null, model = null;
 		int rid, customer_id, odemeter;
+		//new rows written together with the request, null when they exist
+		String[] newCustomer = null;
+		Object[] newCar = null;
+		Integer ownership_id = null;
 		
-		String query;
-		List<List<String>> result  = new ArrayList<List<String>>();
 		try{
 			System.out.println("--------Insert Service Request--------");
 			System.out.println("Enter Customer Last name: ");
 			String lastName = in.readLine();
 			
-			while(true){
-				//search for customer lastName in customer table
-				query = 	"SELECT c.lname, c.id, c.fname " +
-								"FROM customer c " +
-								"WHERE c.lname = '"+lastName+"'" +
-								"GROUP BY c.id";
-				result = esql.executeQueryAndReturnResult(query);
-				// System.out.println(result);
-	
-				//if customer is found  search for customer cars
-				if(result.size() == 0) {
-					System.out.println("Customer "+lastName+" not found...creating customer");
-					AddCustomer(esql, lastName);
-				}else if(result.size() == 1){
-					customer_id = Integer.parseInt(result.get(0).get(1));
-					break;
-				}else{
-					System.out.println("Listing customers...");
-					for(int i = 0; i < result.size(); i++){
-						System.out.println("Number: " + i + " Customer: " + result.get(i).get(2).trim() +" "+ result.get(i).get(0).trim());
-					}
-					System.out.println("Please select the customer # who initiaded request: ");
-					int custNumber = getInt();
-					customer_id = Integer.parseInt(result.get(custNumber).get(1));
-					break;
+			//search for customer lastName in customer table
+			List<Customer> customers = esql.findCustomersByLastName(lastName);
+			// System.out.println(customers);
+
+			//if customer is found  search for customer cars
+			if(customers.size() == 0) {
+				System.out.println("Customer "+lastName+" not found...creating customer");
+				newCustomer = readCustomer(lastName);
+				customer_id = esql.nextId(CUSTOMER_SEQ);
+			}else if(customers.size() == 1){
+				customer_id = customers.get(0).id();
+			}else{
+				System.out.println("Listing customers...");
+				for(int i = 0; i < customers.size(); i++){
+					System.out.println("Number: " + i + " Customer: " + customers.get(i).fname() +" "+ customers.get(i).lname());
 				}
+				System.out.println("Please select the customer # who initiaded request: ");
+				int custNumber = getInt();
+				customer_id = customers.get(custNumber).id();
 			}
 			// System.out.println("CUSTOMER ID : " +customer_id);
 
-			while(true){
-				query = "SELECT c.make, c.model, c.year, c.vin " +
-						"FROM owns o, car c " +
-						"WHERE c.vin = o.car_vin AND "+customer_id+" = o.customer_id";
-				result = esql.executeQueryAndReturnResult(query);
-				// System.out.println(result);
-				
-				//checks if customer has any cars, if not add a car to customer
-				if(result.size() == 0){
-					System.out.println("No cars found...adding car to customer");
-					System.out.println("Enter Car vin:");
-					car_vin = in.readLine();
-					AddCar(esql, car_vin);
-					query = "SELECT COUNT(ownership_id) "+
-							"FROM owns";
-					result = esql.executeQueryAndReturnResult(query);
-					int ownership_id = Integer.parseInt(result.get(0).get(0));
-					System.out.println(ownership_id);
-					query = "INSERT INTO owns VALUES("+ownership_id+","+customer_id+",'"+car_vin+"')";
-					esql.executeUpdate(query);
-					break;
-				}else{
-					System.out.println("Listing cars...");
-					for(int i = 0; i < result.size(); i++){
-						System.out.println("Car Number: " + i + " Car: " + result.get(i).get(2) +" "+ result.get(i).get(0) +" "+ result.get(i).get(1));
-					}
-					System.out.println("Please select the customer car for service: ");
-					int car = getInt();
-					car_vin = result.get(car).get(3);
-					// System.out.println(car_vin);]
-					break;
+			List<OwnedCar> cars = newCustomer != null ? Collections.<OwnedCar>emptyList() : esql.findCarsByOwner(customer_id);
+			// System.out.println(cars);
+			
+			//checks if customer has any cars, if not add a car to customer
+			if(cars.size() == 0){
+				System.out.println("No cars found...adding car to customer");
+				System.out.println("Enter Car vin:");
+				car_vin = in.readLine();
+				newCar = readCar();
+				make = (String) newCar[0];
+				model = (String) newCar[1];
+				ownership_id = esql.nextId(OWNS_SEQ);
+			}else{
+				System.out.println("Listing cars...");
+				for(int i = 0; i < cars.size(); i++){
+					System.out.println("Car Number: " + i + " Car: " + cars.get(i).year() +" "+ cars.get(i).make() +" "+ cars.get(i).model());
 				}
+				System.out.println("Please select the customer car for service: ");
+				int car = getInt();
+				car_vin = cars.get(car).vin();
+				make = cars.get(car).make();
+				model = cars.get(car).model();
+				// System.out.println(car_vin);]
 			}
-			query = "SELECT COUNT(rid)"+
-					"FROM service_request";
-			result = esql.executeQueryAndReturnResult(query);
 			// System.out.println("Enter Service Request ID:");
-			rid = Integer.parseInt(result.get(0).get(0));
+			rid = esql.nextId(SERVICE_REQUEST_SEQ);
 			// System.out.println("Enter Customer ID:");
 			// customer_id = getInt();
 			// System.out.println("Enter Car VIN:");
@@ -489,79 +1178,147 @@ public class MechanicShop{
 			odemeter = getInt();
 			System.out.println("Enter Service Complaint:");
 			complain = in.readLine();
-			query = "INSERT INTO service_request VALUES("+rid+", "+customer_id+", '"+car_vin+"', '"+date+"', "+odemeter+", '"+complain+"')";
-			System.out.println(query);
-			esql.executeUpdate(query);
+			if(openServiceRequest(esql, rid, customer_id, car_vin, date, odemeter, complain, newCustomer, newCar, ownership_id, make, model)){
+				System.out.println("Service request " + rid + " accepted");
+			}
 		}catch(Exception e){
 			System.err.println (e.getMessage());
 		}
 	}
+
+	/**
+	 * Method to write a service request together with whatever customer,
+	 * car and ownership it needs, in one statement.  When none is new and
+	 * write-behind is on, the request is queued instead.
+	 * 
+	 * @param newCustomer first name, last name, phone and address of a new
+	 *        customer, null for an existing one
+	 * @param newCar make, model and year of a new car, null for an existing one
+	 * @param ownershipId key of a new ownership, null for none
+	 * @param make make of the car, as far as the caller knows
+	 * @param model model of the car, as far as the caller knows
+	 * @return whether the request was queued rather than written
+	 * @throws java.lang.Exception when the request can not be written
+	 */
+	static boolean openServiceRequest(MechanicShop esql, int rid, int customerId, String carVin, String date, int odometer,
+			String complain, String[] newCustomer, Object[] newCar, Integer ownershipId, String make, String model) throws Exception {
+		WriteBehindQueue writeBehind = esql.getWriteBehind();
+		if(writeBehind != null && newCustomer == null && newCar == null && ownershipId == null){
+			// acknowledged once journaled, the writer inserts and counts it shortly
+			writeBehind.openRequest(rid, customerId, carVin, java.sql.Date.valueOf(date).toString(), odometer, complain,
+					make, model);
+			return true;
+		}else{
+			// customer, car, ownership and request commit together or not at all
+			List<String[]> result = esql.executeQueryAndMap(OPEN_REQUEST_QUERY, rs -> new String[]{rs.getString (1), rs.getString (2)},
+					rid, customerId, carVin,
+					java.sql.Date.valueOf(date), odometer, complain,
+					newCustomer == null ? null : newCustomer[0], newCustomer == null ? null : newCustomer[1],
+					newCustomer == null ? null : newCustomer[2], newCustomer == null ? null : newCustomer[3],
+					newCar == null ? null : newCar[0], newCar == null ? null : newCar[1], newCar == null ? null : newCar[2],
+					ownershipId);
+			if(result.size() > 0){
+				// a VIN that was already known keeps its make and model
+				make = result.get(0)[0];
+				model = result.get(0)[1];
+			}
+			if(newCustomer != null){
+				esql.invalidateCustomersByLastName(newCustomer[1]);
+			}
+			if(ownershipId != null){
+				esql.invalidateCarsByOwner(customerId);
+			}
+		}
+		if(make != null){
+			esql.getServiceCounter().increment(make, model);
+		}
+		return false;
+	}//end openServiceRequest
 	
 	public static void CloseServiceRequest(MechanicShop esql) throws Exception{//5
 		//completed by SamT
 		String date, comment;
-		int rid, mid, bill;
-		String query;
-		List<List<String>> result  = new ArrayList<List<String>>();
+		int wid, rid, mid, bill;
 		try{
 			System.out.println("--------Close Service Request--------");
-			while(true){
-				System.out.println("Enter Service Request ID:");
-				rid = getInt();
-				//REQUIRES INDEXING for perfomance increase	
-				query = "CREATE INDEX serviceRequestID on service_request (rid);";
-				esql.executeUpdate(query);
-				
-				query = "SELECT s.rid " +
-						"FROM service_request s "+
-						"WHERE s.rid ="+rid;
-				result =  esql.executeQueryAndReturnResult(query);
-				if(result.size() > 0){
-					query = "DROP INDEX serviceRequestID";
-					esql.executeUpdate(query);
-					break;
-				}
-				System.out.println("ID not found...");
-			}
-			while(true){
-				System.out.println("Enter Mechanic ID:");
-				mid = getInt();
-				query = "SELECT id " +
-						"FROM mechanic "+
-						"WHERE id ="+mid;
-				result =  esql.executeQueryAndReturnResult(query);
-				if(result.size() > 0){
-					break;
-				}
-				System.out.println("ID not found...");
-			}	
+			System.out.println("Enter Service Request ID:");
+			rid = getInt();
+			System.out.println("Enter Mechanic ID:");
+			mid = getInt();
 			System.out.println("Enter Close Date(yyyy-MM-dd):");
 			date = in.readLine();
 			System.out.println("Enter Close Comment:");
 			comment = in.readLine();
 			System.out.println("Enter Close Bill:");
 			bill = getInt();
-			query = "INSERT INTO closed_request VALUES("+rid+", "+rid+", "+mid+", '"+date+"', '"+comment+"', "+bill+")";
-			System.out.println(query);
-			esql.executeUpdate(query);
+			wid = esql.nextId(CLOSED_REQUEST_SEQ);
+			while(true){
+				String unknown = closeServiceRequest(esql, wid, rid, mid, date, comment, bill);
+				if(unknown == null){
+					if(esql.getWriteBehind() != null){
+						System.out.println("Closed request " + wid + " accepted");
+					}
+					return;
+				}
+				System.out.println("ID not found...");
+				if(UNKNOWN_REQUEST.equals(unknown)){
+					System.out.println("Enter Service Request ID:");
+					rid = getInt();
+				}else{
+					System.out.println("Enter Mechanic ID:");
+					mid = getInt();
+				}
+			}
 		}catch(Exception e){
 			System.err.println (e.getMessage());
 		}
 	}
 	
+	/**
+	 * Method to close a service request, or queue its closing when
+	 * write-behind is on.
+	 * 
+	 * @return null when done, UNKNOWN_REQUEST or UNKNOWN_MECHANIC when the
+	 *         request or the mechanic does not exist
+	 * @throws java.lang.Exception when the closing can not be written
+	 */
+	static String closeServiceRequest(MechanicShop esql, int wid, int rid, int mid, String date, String comment, int bill) throws Exception {
+		WriteBehindQueue writeBehind = esql.getWriteBehind();
+		if(writeBehind != null){
+			// both ids checked in one query, a request still queued counts as known
+			boolean[] found = esql.executeQueryAndMap("SELECT " +
+					"EXISTS(SELECT 1 FROM service_request WHERE rid = ?), " +
+					"EXISTS(SELECT 1 FROM mechanic WHERE id = ?)",
+					rs -> new boolean[]{rs.getBoolean (1), rs.getBoolean (2)}, rid, mid).get(0);
+			if(!found[0] && !writeBehind.isPendingRequest(rid)){
+				return UNKNOWN_REQUEST;
+			}
+			if(!found[1]){
+				return UNKNOWN_MECHANIC;
+			}
+			writeBehind.closeRequest(wid, rid, mid, java.sql.Date.valueOf(date).toString(), comment, bill);
+			return null;
+		}
+		try{
+			esql.executePreparedQuery(CLOSE_REQUEST_QUERY, wid, rid, mid, java.sql.Date.valueOf(date), comment, bill);
+			return null;
+		}catch(SQLException e){
+			if(UNKNOWN_REQUEST.equals(e.getSQLState()) || UNKNOWN_MECHANIC.equals(e.getSQLState())){
+				return e.getSQLState();
+			}
+			throw e;
+		}
+	}//end closeServiceRequest
+
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 	    //completed by CristinaL
 
 	    try{
-			String query = "SELECT c.fname, c.lname, r.date, r.comment, r.bill " +
-							"FROM customer c, closed_request r, service_request s " +
-	                        "WHERE s.customer_id = c.id AND r.rid = s.rid AND r.bill < 100";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
-			System.out.printf("%-22s%-22s%-22s%-22s%-22s\n", "FirstName", "LastName", "Date", "Comment", "Bill");
-			System.out.println("=======================================================================");
-		    for(int i = 0; i < result.size(); i++){
-						System.out.printf("%-22s%-22s%-22s%-22s%-22s\n", result.get(i).get(0).trim(), result.get(i).get(1).trim(), result.get(i).get(2), result.get(i).get(4), result.get(i).get(3));
-			}
+			AnalyticsSnapshot analytics = esql.getAnalytics();
+			if (analytics != null)
+				new ReportPager(analytics.pages(6), ReportPager.PAGE_SIZE).run();
+			else
+				new ReportPager(esql, SMALL_BILLS, ReportPager.PAGE_SIZE).run();
         }catch(Exception e){
 			System.err.println (e.getMessage());
 		}
@@ -570,18 +1327,8 @@ public class MechanicShop{
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
         //completed by CristinaL
 
-	    try{
-	        String query = "SELECT c.fname, c.lname " +
-	                        "FROM customer c " +
-	                        "WHERE (SELECT COUNT(v.vin) " +
-	                                "FROM owns o, car v " +
-	                                "WHERE c.id = o.customer_id AND o.car_vin = v.vin) > 20";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
-			System.out.printf("%-22s%-22s\n", "FirstName", "LastName");
-			System.out.println("=======================================================================");
-		    for(int i = 0; i < result.size(); i++){
-						System.out.printf("%-22s%-22s\n", result.get(i).get(0).trim(), result.get(i).get(1).trim());
-			}
+	    try(ResultRenderer out = ResultRenderer.text()){
+			renderReport(esql, 7, 0, null, out);
         }catch(Exception e){
 			System.err.println (e.getMessage());
 		}
@@ -590,16 +1337,8 @@ public class MechanicShop{
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 	    //completed by CristinaL
 
-		try{
-		    String query = "SELECT DISTINCT c.make, c.model, c.year " +
-		                    "FROM car c, service_request r " +
-		                    "WHERE c.vin = r.car_vin AND c.year < 1995 AND r.odometer < 50000";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
-			System.out.printf("%-22s%-22s%-22s\n", "Make", "Model", "Year");
-			System.out.println("=======================================================================");
-		    for(int i = 0; i < result.size(); i++){
-						System.out.printf("%-22s%-22s%-22s\n", result.get(i).get(0), result.get(i).get(1), result.get(i).get(2));
-			}
+		try(ResultRenderer out = ResultRenderer.text()){
+			renderReport(esql, 8, 0, null, out);
         }catch(Exception e){
 			System.err.println (e.getMessage());
 		}
@@ -613,27 +1352,10 @@ public class MechanicShop{
 		try{
 		    System.out.println("Enter the Highest Amount of Service Requests (Amount > 0):");
 			k = getInt();
-			
-			//REQUIRES INDEXING for perfomance increase	
-			String indexQuery = "CREATE INDEX serviceRequestCar_vin on service_request (car_vin);";
-			esql.executeUpdate(indexQuery);
-
-		    String query = "SELECT c.make, c.model, COUNT(r.rid) cnt " +
-		                    "FROM car c, service_request r " +
-		                    "WHERE c.vin = r.car_vin " +
-		                    "GROUP BY c.make, c.model " +
-		                    "ORDER BY cnt DESC " +
-		                    "LIMIT " + k + " ";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
-			System.out.printf("%-22s%-22s%-22s\n", "Make", "Model", "Service Request");
-			System.out.println("=======================================================================");
-		    for(int i = 0; i < result.size(); i++){
-						System.out.printf("%-22s%-22s%-22s\n", result.get(i).get(0), result.get(i).get(1), result.get(i).get(2));
-			}
-			
-			indexQuery = "DROP INDEX serviceRequestCar_vin";
-			esql.executeUpdate(indexQuery);
 
+			try(ResultRenderer out = ResultRenderer.text()){
+				renderReport(esql, 9, k, null, out);
+			}
         }catch(Exception e){
 			System.err.println (e.getMessage());
 		}
@@ -643,31 +1365,400 @@ public class MechanicShop{
 		//completed by CristinaL
 
 	    try{
-			//REQUIRES INDEXING for perfomance increase	
-			String indexQuery = "CREATE INDEX serviceRequestID on service_request (rid);";
-			esql.executeUpdate(indexQuery);
-			//REQUIRES INDEXING for perfomance increase	
-			indexQuery = "CREATE INDEX closedRequestID on closed_request (rid);";
-			esql.executeUpdate(indexQuery);
-			
-	        String query = "SELECT c.fname, c.lname, SUM(r.bill) bill " +
-			"FROM customer c, owns o, car v, closed_request r, service_request s " +
-			"WHERE c.id = o.customer_id AND o.car_vin = v.vin AND v.vin = s.car_vin AND r.rid = s.rid " +
-			"GROUP BY c.fname, c.lname " +
-			"ORDER BY bill DESC ";
-			List<List<String>> result = esql.executeQueryAndReturnResult(query);
-			System.out.printf("%-22s%-22s%-22s\n", "FirstName", "LastName", "Total Bill");
-			System.out.println("=======================================================================");
-		    for(int i = 0; i < result.size(); i++){
-						System.out.printf("%-22s%-22s%-22s\n", result.get(i).get(0).trim(), result.get(i).get(1).trim(), result.get(i).get(2));
+			AnalyticsSnapshot analytics = esql.getAnalytics();
+			if (analytics != null)
+				new ReportPager(analytics.pages(10), ReportPager.PAGE_SIZE).run();
+			else
+				new ReportPager(esql, TOTAL_BILLS, ReportPager.PAGE_SIZE).run();
+        }catch(Exception e){
+			System.err.println (e.getMessage());
+		}
+	}
+
+	//report 6 paged on (date, wid), see closed_request_small_bill_date_idx
+	private static final String SMALL_BILLS_QUERY = "SELECT c.fname, c.lname, r.date, r.comment, r.bill, r.date, r.wid " +
+			"FROM customer c, closed_request r, service_request s " +
+			"WHERE s.customer_id = c.id AND r.rid = s.rid AND r.bill < 100";
+	private static final ReportPager.Listing SMALL_BILLS = new ReportPager.Listing(
+			new String[]{"FirstName", "LastName", "Date", "Comment", "Bill"},
+			SMALL_BILLS_QUERY + " ORDER BY r.date, r.wid LIMIT ?",
+			SMALL_BILLS_QUERY + " AND (r.date, r.wid) > (?::date, ?::integer) ORDER BY r.date, r.wid LIMIT ?", new int[]{0, 1},
+			SMALL_BILLS_QUERY + " AND (r.date, r.wid) < (?::date, ?::integer) ORDER BY r.date DESC, r.wid DESC LIMIT ?", new int[]{0, 1},
+			SMALL_BILLS_QUERY + " ORDER BY r.date DESC, r.wid DESC LIMIT ?",
+			SMALL_BILLS_QUERY + " AND r.date >= ?::date ORDER BY r.date, r.wid LIMIT ?", "date (yyyy-mm-dd)");
+
+	//report 10 paged on (total_bill DESC, customer_id), see customer_bill_total_bill_idx;
+	//the first condition bounds the index range, the second skips the ties already shown
+	private static final String TOTAL_BILLS_QUERY = "SELECT c.fname, c.lname, t.total_bill, t.total_bill, t.customer_id " +
+			"FROM customer_bill_total t, customer c " +
+			"WHERE c.id = t.customer_id AND t.total_bill > 0";
+	private static final ReportPager.Listing TOTAL_BILLS = new ReportPager.Listing(
+			new String[]{"FirstName", "LastName", "Total Bill"},
+			TOTAL_BILLS_QUERY + " ORDER BY t.total_bill DESC, t.customer_id LIMIT ?",
+			TOTAL_BILLS_QUERY + " AND t.total_bill <= ?::bigint AND (t.total_bill < ?::bigint OR t.customer_id > ?::integer) " +
+					"ORDER BY t.total_bill DESC, t.customer_id LIMIT ?", new int[]{0, 0, 1},
+			TOTAL_BILLS_QUERY + " AND t.total_bill >= ?::bigint AND (t.total_bill > ?::bigint OR t.customer_id < ?::integer) " +
+					"ORDER BY t.total_bill, t.customer_id DESC LIMIT ?", new int[]{0, 0, 1},
+			TOTAL_BILLS_QUERY + " ORDER BY t.total_bill, t.customer_id DESC LIMIT ?",
+			TOTAL_BILLS_QUERY + " AND t.total_bill <= ?::bigint ORDER BY t.total_bill DESC, t.customer_id LIMIT ?", "total bill");
+
+	/**
+	 * Method to run one of the reports of menu entries 6 to 10 into a
+	 * renderer.  The rows are streamed, so an export never holds the whole
+	 * report in memory.  Column aliases are the headings.  While an
+	 * analytics snapshot is loaded the rows are computed from it instead.
+	 * 
+	 * @param report the menu entry of the report
+	 * @param k how many make and models report 9 lists
+	 * @param control timeout and cancellation of the query, null for none
+	 * @param out where the rows are rendered
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static void renderReport(MechanicShop esql, int report, int k, QueryControl control, ResultRenderer out) throws SQLException {
+		renderReport(esql, report, k, null, control, out);
+	}
+
+	/**
+	 * Method to run a report over the requests and bills dated in a range.
+	 * Report 7 has no dates and ignores the range.  A ranged report always
+	 * runs as SQL, which scans only the partitions of the range; report 10
+	 * then sums the bills instead of reading customer_bill_total.  Reports
+	 * run as SQL are kept in the report cache until a table they read is
+	 * written.
+	 * 
+	 * @param range the dates to report on, null for all history
+	 */
+	public static void renderReport(MechanicShop esql, int report, int k, DateRange range, QueryControl control, ResultRenderer out) throws SQLException {
+		if (range != null && report != 7) {
+			List<Object> params = range.params();
+			if (report == 9)
+				params.add(k);
+			renderCached(esql, report, k, range, reportQuery(report, range), control, out, params.toArray());
+			return;
+		}
+		AnalyticsSnapshot analytics = esql.getAnalytics();
+		if (analytics != null) {
+			out.columns(AnalyticsSnapshot.labels(report));
+			for (Object[] row : analytics.report(report, k))
+				out.row(row);
+			return;
+		}
+		if (report == 9) {
+			//answered from the in-memory counter, see CheckServiceCounter
+			out.columns("Make", "Model", "Service Request");
+			for (ServiceCounter.Entry e : esql.getServiceCounter().topK(k))
+				out.row(e.getMake(), e.getModel(), e.getCount());
+			return;
+		}
+		renderCached(esql, report, k, null, reportQuery(report), control, out);
+	}//end renderReport
+
+	private static void renderCached(MechanicShop esql, int report, int k, DateRange range, String query,
+			QueryControl control, ResultRenderer out, Object... params) throws SQLException {
+		ReportCache cache = esql.getReportCache();
+		if (!cache.isEnabled()) {
+			esql.executeQueryAndStreamResult(query, control, out, params);
+			return;
+		}
+		String key = ReportCache.key(report, k, range);
+		if (cache.render(key, out))
+			return;
+		ReportCache.Capture capture = cache.capture(key, report, out);
+		esql.executeQueryAndStreamResult(query, control, capture, params);
+		capture.complete();
+	}//end renderCached
+
+	/**
+	 * @return the SQL of one of the reports of menu entries 6, 7, 8 and 10
+	 */
+	static String reportQuery(int report){
+		return reportQuery(report, null);
+	}
+
+	/**
+	 * @return the SQL of a report over a date range, taking the bounds of
+	 *         the range as parameters, and k last for report 9
+	 */
+	static String reportQuery(int report, DateRange range){
+		if (range != null) {
+			switch (report){
+				case 9:
+					return "SELECT c.make \"Make\", c.model \"Model\", COUNT(r.rid) \"Service Request\" " +
+							"FROM car c, service_request r " +
+							"WHERE c.vin = r.car_vin" + range.sql("r.date") + " " +
+							"GROUP BY c.make, c.model " +
+							"ORDER BY 3 DESC, 1, 2 LIMIT ?";
+				case 10:
+					// the trigger maintained totals cover all history
+					return "SELECT c.fname \"FirstName\", c.lname \"LastName\", SUM(r.bill) \"Total Bill\" " +
+							"FROM customer c, owns o, service_request s, closed_request r " +
+							"WHERE o.customer_id = c.id AND o.car_vin = s.car_vin AND r.rid = s.rid" + range.sql("r.date") + " " +
+							"GROUP BY c.id, c.fname, c.lname " +
+							"HAVING SUM(r.bill) > 0 " +
+							"ORDER BY 3 DESC, c.id";
 			}
-			indexQuery = "DROP INDEX serviceRequestID";
-			esql.executeUpdate(indexQuery);
-			indexQuery = "DROP INDEX closedRequestID";
-			esql.executeUpdate(indexQuery);
+		}
+		String dates = range == null ? "" : range.sql("r.date");
+		switch (report){
+			case 6:
+				return "SELECT c.fname \"FirstName\", c.lname \"LastName\", r.date \"Date\", r.comment \"Comment\", r.bill \"Bill\" " +
+						"FROM customer c, closed_request r, service_request s " +
+						"WHERE s.customer_id = c.id AND r.rid = s.rid AND r.bill < 100" + dates + " " +
+						"ORDER BY r.date, r.wid";
+			case 7:
+				return "SELECT c.fname \"FirstName\", c.lname \"LastName\" " +
+						"FROM customer c " +
+						"WHERE (SELECT COUNT(v.vin) " +
+							"FROM owns o, car v " +
+							"WHERE c.id = o.customer_id AND o.car_vin = v.vin) > 20";
+			case 8:
+				return "SELECT DISTINCT c.make \"Make\", c.model \"Model\", c.year \"Year\" " +
+						"FROM car c, service_request r " +
+						"WHERE c.vin = r.car_vin AND c.year < 1995 AND r.odometer < 50000" + dates;
+			case 10:
+				//totals are maintained by triggers, see V4__customer_bill_totals.sql
+				return "SELECT c.fname \"FirstName\", c.lname \"LastName\", t.total_bill \"Total Bill\" " +
+						"FROM customer_bill_total t, customer c " +
+						"WHERE c.id = t.customer_id AND t.total_bill > 0 " +
+						"ORDER BY t.total_bill DESC, t.customer_id";
+			default:
+				throw new IllegalArgumentException("No SQL for report " + report + ", reports are 6 to 10 but 9");
+		}
+	}
 
-        }catch(Exception e){
+	public static void ExportReport(MechanicShop esql){//15
+		//writes a report to a csv or json file instead of the screen
+		try{
+			System.out.println("Enter report number (6-10):");
+			int report = getInt();
+			int k = Integer.MAX_VALUE;
+			if (report == 9) {
+				System.out.println("Enter the Highest Amount of Service Requests (Amount > 0):");
+				k = getInt();
+			}
+			System.out.println("Enter first date (yyyy-MM-dd, blank for all history):");
+			String from = in.readLine();
+			System.out.println("Enter end date, exclusive (yyyy-MM-dd, blank for no end):");
+			String to = in.readLine();
+			System.out.println("Enter file name (.csv or .json):");
+			String file = in.readLine().trim();
+			exportReport(esql, report, k, DateRange.parse(from, to), file);
+		}catch(Exception e){
+			System.err.println (e.getMessage());
+		}
+	}
+
+	public static void Dashboard(MechanicShop esql){//16
+		//runs reports 6 to 10 side by side, -Ddashboard.queryTimeoutSec limits each query
+		try{
+			new Dashboard(esql, Integer.getInteger("dashboard.queryTimeoutSec", 60)).run();
+		}catch(Exception e){
+			System.err.println (e.getMessage());
+		}
+	}
+
+	static void exportReport(MechanicShop esql, int report, int k, DateRange range, String file) throws Exception {
+		long rows;
+		try(ResultRenderer out = ResultRenderer.file(file)){
+			renderReport(esql, report, k, range, null, out);
+			rows = out.getRowCount();
+		}
+		System.out.println("Exported " + rows + " rows to " + file);
+	}
+
+	public static void ReconcileCustomerBillTotals(MechanicShop esql){//12
+		//rebuilds customer_bill_total from the full join and reports any drift
+		final String expected = BILL_TOTALS_QUERY;
+		try{
+			System.out.println("--------Reconcile Customer Bill Totals--------");
+			int drift = esql.executeTransaction(pc -> {
+				Statement stmt = pc.getConnection().createStatement();
+				// hold off writers so the comparison and rebuild see one state
+				stmt.execute("LOCK TABLE owns, service_request, closed_request IN SHARE MODE");
+				stmt.execute("LOCK TABLE customer_bill_total IN EXCLUSIVE MODE");
+				ResultSet rs = stmt.executeQuery(
+						"SELECT COALESCE(e.customer_id, t.customer_id), COALESCE(t.total_bill, 0), COALESCE(e.total_bill, 0) " +
+						"FROM (" + expected + ") e FULL OUTER JOIN customer_bill_total t ON t.customer_id = e.customer_id " +
+						"WHERE COALESCE(t.total_bill, 0) <> COALESCE(e.total_bill, 0) " +
+						"ORDER BY 1");
+				int rows = 0;
+				while(rs.next()){
+					if(rows == 0){
+						System.out.printf("%-22s%-22s%-22s\n", "CustomerID", "Maintained", "Actual");
+						System.out.println("=======================================================================");
+					}
+					System.out.printf("%-22s%-22s%-22s\n", rs.getString(1), rs.getString(2), rs.getString(3));
+					rows++;
+				}
+				rs.close();
+				stmt.executeUpdate("DELETE FROM customer_bill_total");
+				stmt.executeUpdate("INSERT INTO customer_bill_total (customer_id, total_bill) " + expected);
+				stmt.close();
+				return rows;
+			});
+			esql.invalidateReports("INSERT INTO customer_bill_total");
+			if(drift == 0){
+				System.out.println("Customer bill totals are consistent, rebuilt from scratch.");
+			}else{
+				System.out.println(drift + " customer total(s) had drifted, rebuilt from scratch.");
+			}
+		}catch(Exception e){
 			System.err.println (e.getMessage());
 		}
 	}
-}
\ No newline at end of file
+
+	public static void CheckServiceCounter(MechanicShop esql){//13
+		//compares the in-memory make/model counter with the SQL aggregate
+		try{
+			System.out.println("--------Check Service Counter--------");
+			List<String> mismatches = esql.getServiceCounter().check(esql);
+			if(mismatches.isEmpty()){
+				System.out.println("Service counter matches the database.");
+				return;
+			}
+			for(String m : mismatches){
+				System.out.println(m);
+			}
+			System.out.println(mismatches.size() + " make/model count(s) differ, reloading counter...");
+			esql.getServiceCounter().load(esql);
+			System.out.println("Done");
+		}catch(Exception e){
+			System.err.println (e.getMessage());
+		}
+	}
+
+	public static void AnalyticsSnapshot(MechanicShop esql){//17
+		//reports 6 to 10 from an in-memory copy of their tables, -Danalytics.snapshot=true loads it at startup
+		try{
+			System.out.println("--------Analytics Snapshot--------");
+			AnalyticsSnapshot analytics = esql.getAnalytics();
+			System.out.println(analytics == null ? "Reports run as SQL." : analytics.getStats());
+			System.out.println("1. Load/refresh snapshot");
+			System.out.println("2. Check snapshot reports against SQL");
+			System.out.println("3. Drop snapshot, run reports as SQL");
+			switch (readChoice()){
+				case 1:
+					esql.setAnalytics(AnalyticsSnapshot.load(esql));
+					System.out.println(esql.getAnalytics().getStats());
+					break;
+				case 2:
+					List<String> differences = AnalyticsSnapshot.check(esql);
+					for(String d : differences){
+						System.out.println(d);
+					}
+					System.out.println(differences.isEmpty() ? "Every report matches its SQL." : differences.size() + " report(s) differ.");
+					break;
+				case 3:
+					esql.setAnalytics(null);
+					System.out.println("Done");
+					break;
+			}
+		}catch(Exception e){
+			System.err.println (e.getMessage());
+		}
+	}
+
+	public static void SearchRequests(MechanicShop esql){//18
+		//full-text search over complaints and closing comments
+		try{
+			System.out.println("Enter words to search for (\"quoted phrase\", or, -word):");
+			String text = in.readLine();
+			System.out.println("Enter make (blank for any):");
+			String make = in.readLine();
+			System.out.println("Enter model (blank for any):");
+			String model = in.readLine();
+			System.out.println("Enter first date (yyyy-MM-dd, blank for all history):");
+			String from = in.readLine();
+			System.out.println("Enter end date, exclusive (yyyy-MM-dd, blank for no end):");
+			String to = in.readLine();
+			try(ResultRenderer out = ResultRenderer.text()){
+				searchRequests(esql, text, make, model, DateRange.parse(from, to), SEARCH_LIMIT, null, out);
+			}
+		}catch(Exception e){
+			System.err.println (e.getMessage());
+		}
+	}
+
+	//matches listed by a search unless the caller asks for more
+	static final int SEARCH_LIMIT = 50;
+
+	/**
+	 * Method to search the complaints of service requests and the comments
+	 * of their closing, best matches first.  Words are stemmed, so brake
+	 * finds brakes; the text takes the web search syntax of PostgreSQL.
+	 * Each request is listed once, ranked by its complaint and comment
+	 * together.
+	 * 
+	 * @param text the words to find
+	 * @param make only cars of this make, null or blank for any
+	 * @param model only cars of this model, null or blank for any
+	 * @param range only requests opened in this range, null for any
+	 * @param limit most matches listed
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static void searchRequests(MechanicShop esql, String text, String make, String model, DateRange range, int limit,
+			QueryControl control, ResultRenderer out) throws SQLException {
+		if (text == null || text.isBlank())
+			throw new IllegalArgumentException("Nothing to search for");
+		boolean byMake = make != null && !make.isBlank();
+		boolean byModel = model != null && !model.isBlank();
+		String dates = range == null ? "" : range.sql("s.date");
+		// a request is closed on or after the day it was opened, so the
+		// comments are pruned to the partitions from the range's start on
+		DateRange closed = range == null || range.getFrom() == null ? null : new DateRange(range.getFrom(), null);
+		String cars = (byMake ? " AND lower(c.make) = lower(?)" : "") + (byModel ? " AND lower(c.model) = lower(?)" : "");
+		List<Object> params = new ArrayList<Object>();
+		params.add(text);
+		// the filters apply in each branch, before the matches are ranked
+		for (int branch = 0; branch < 2; ++branch) {
+			if (range != null)
+				params.addAll(range.params());
+			if (branch == 1 && closed != null)
+				params.addAll(closed.params());
+			if (byMake)
+				params.add(make.trim());
+			if (byModel)
+				params.add(model.trim());
+		}
+		if (closed != null)
+			params.addAll(closed.params());
+		if (range != null)
+			params.addAll(range.params());
+		params.add(limit);
+		// each branch is answered from its own GIN index
+		esql.executeQueryAndStreamResult("WITH q AS (SELECT websearch_to_tsquery('english', ?) query), " +
+				"hits AS (" +
+					"SELECT s.rid, ts_rank(s.complain_tsv, q.query) AS rank " +
+					"FROM q, service_request s JOIN car c ON c.vin = s.car_vin " +
+					"WHERE s.complain_tsv @@ q.query" + dates + cars + " " +
+					"UNION ALL " +
+					"SELECT r.rid, ts_rank(r.comment_tsv, q.query) " +
+					"FROM q, closed_request r JOIN service_request s ON s.rid = r.rid JOIN car c ON c.vin = s.car_vin " +
+					"WHERE r.comment_tsv @@ q.query" + dates + (closed == null ? "" : closed.sql("r.date")) + cars + ") " +
+				"SELECT s.rid \"Request\", s.date \"Date\", c.make \"Make\", c.model \"Model\", " +
+					"s.complain \"Complaint\", r.comment \"Comment\", ROUND(h.rank::numeric, 4) \"Rank\" " +
+				"FROM (SELECT rid, SUM(rank) AS rank FROM hits GROUP BY rid) h " +
+					"JOIN service_request s ON s.rid = h.rid " +
+					"JOIN car c ON c.vin = s.car_vin " +
+					// a request closed more than once is listed with its last comment
+					"LEFT JOIN LATERAL (SELECT comment FROM closed_request " +
+						"WHERE rid = s.rid" + (closed == null ? "" : closed.sql("date")) + " " +
+						"ORDER BY date DESC, wid DESC LIMIT 1) r ON true " +
+				// only prunes the partitions the listed requests are read from
+				"WHERE true" + dates + " " +
+				"ORDER BY h.rank DESC, s.rid LIMIT ?", control, out, params.toArray());
+	}//end searchRequests
+
+	public static void Stats(MechanicShop esql){//14
+		//latency percentiles of the menu operations and SQL shapes so far
+		System.out.println("--------Stats--------");
+		System.out.print(esql.getMetrics().report());
+		System.out.println("Statement cache: " + esql.getStatementCacheHits() + " hits, " + esql.getStatementCacheMisses() + " misses");
+		System.out.println(esql.getLookupCacheStats());
+		System.out.println(esql.getReportCache().getStats());
+		System.out.println(esql.getPoolStats());
+		if(esql.getWriteBehind() != null){
+			System.out.println(esql.getWriteBehind().getStats());
+		}
+	}
+}
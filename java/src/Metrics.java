@@ -0,0 +1,254 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * This class records where the time of the application goes.  Every
+ * statement run through MechanicShop is timed into a histogram for its SQL
+ * shape (the text with literals replaced by '?'), together with rows and
+ * bytes returned and errors.  The database time of each menu operation is
+ * the sum of its statements, so prompts waiting on the clerk do not count.
+ *
+ * Statements slower than the threshold are written to the slow query log
+ * with their plan, captured on a background thread and pooled connection.
+ * ANALYZE runs the statement again, so only queries that just read tables
+ * get EXPLAIN (ANALYZE, BUFFERS); a rollback does not undo nextval or a
+ * NOTIFY, so writes and calls of the request functions get the plain
+ * EXPLAIN plan.
+ *
+ */
+
+public class Metrics{
+	/**
+	 * Latency, volume and error counts of one operation or SQL shape.
+	 */
+	static class Stat{
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder errors = new LongAdder();
+	}
+
+	/**
+	 * Statement time accumulated by the operation running on a thread.
+	 */
+	private static class Operation{
+		final String name;
+		long nanos = 0;
+		long rows = 0;
+		long bytes = 0;
+		boolean failed = false;
+
+		Operation(String name){
+			this.name = name;
+		}
+	}
+
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w$.])-?\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern EXPLAINABLE = Pattern.compile("(?is)^\\s*(SELECT|WITH|INSERT|UPDATE|DELETE)\\b.*");
+	private static final Pattern QUERY = Pattern.compile("(?is)^\\s*(SELECT|WITH)\\b.*");
+	//writes, and calls whose effects outlive a rollback
+	private static final Pattern SIDE_EFFECT = Pattern.compile("(?i)\\b(INSERT|UPDATE|DELETE|nextval|setval|pg_notify|"
+			+ "open_service_request|close_service_request|ensure_request_partitions|detach_request_partitions|"
+			+ "set_report_cache_notify|pg_advisory_\\w+)\\b");
+	//shapes are kept per distinct text, bound it against ad-hoc SQL
+	private static final int MAX_SHAPES = 1000;
+
+	private final ConnectionPool _pool;
+	private final long _slowThresholdNanos;
+	private final String _slowLogFile;
+	private final Map<String, Stat> _operations = new ConcurrentHashMap<String, Stat>();
+	private final Map<String, Stat> _shapes = new ConcurrentHashMap<String, Stat>();
+	private final ThreadLocal<Operation> _current = new ThreadLocal<Operation>();
+	private final ExecutorService _explainer;
+	private final LongAdder _slowQueries = new LongAdder();
+
+	public Metrics(ConnectionPool pool, long slowThresholdMillis, String slowLogFile){
+		this._pool = pool;
+		this._slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowThresholdMillis);
+		this._slowLogFile = slowLogFile;
+		// a short queue, plans of a burst of slow statements are dropped
+		// rather than piling extra load on a struggling database
+		this._explainer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(16), r -> {
+					Thread t = new Thread(r, "slow-query-explain");
+					t.setDaemon(true);
+					return t;
+				});
+	}
+
+	/**
+	 * Method to start attributing the statements of this thread to an
+	 * operation.
+	 */
+	public void beginOperation(String name){
+		this._current.set(new Operation(name));
+	}
+
+	/**
+	 * Method to record the operation started on this thread.
+	 */
+	public void endOperation(){
+		Operation op = this._current.get();
+		if(op == null){
+			return;
+		}
+		this._current.remove();
+		Stat stat = this._operations.computeIfAbsent(op.name, k -> new Stat());
+		stat.latency.recordNanos(op.nanos);
+		stat.rows.add(op.rows);
+		stat.bytes.add(op.bytes);
+		if(op.failed){
+			stat.errors.increment();
+		}
+	}
+
+	/**
+	 * Method to record one executed statement.
+	 *
+	 * @param sql the statement text as sent
+	 * @param params bound parameters, empty for plain statements
+	 * @param nanos elapsed time
+	 * @param rows rows returned or affected
+	 * @param bytes characters of column data fetched, 0 when not measured
+	 * @param failed whether the statement threw
+	 */
+	public void recordStatement(String sql, Object[] params, long nanos, long rows, long bytes, boolean failed){
+		String shape = shape(sql);
+		Stat stat = this._shapes.get(shape);
+		if(stat == null){
+			if(this._shapes.size() >= MAX_SHAPES){
+				shape = "(other)";
+			}
+			stat = this._shapes.computeIfAbsent(shape, k -> new Stat());
+		}
+		stat.latency.recordNanos(nanos);
+		stat.rows.add(rows);
+		stat.bytes.add(bytes);
+		if(failed){
+			stat.errors.increment();
+		}
+
+		Operation op = this._current.get();
+		if(op != null){
+			op.nanos += nanos;
+			op.rows += rows;
+			op.bytes += bytes;
+			op.failed |= failed;
+		}
+
+		if(nanos >= this._slowThresholdNanos && !failed){
+			this._slowQueries.increment();
+			logSlow(sql, params, nanos, op == null ? "-" : op.name);
+		}
+	}//end recordStatement
+
+	/**
+	 * @return the current numbers as a printable table
+	 */
+	public String report(){
+		StringBuilder out = new StringBuilder();
+		out.append("Database time per operation (ms)\n");
+		appendTable(out, this._operations);
+		out.append("\nLatency per SQL shape (ms)\n");
+		appendTable(out, this._shapes);
+		out.append("\n").append(this._slowQueries.sum()).append(" slow statement(s) over ")
+			.append(TimeUnit.NANOSECONDS.toMillis(this._slowThresholdNanos)).append(" ms logged to ")
+			.append(this._slowLogFile).append('\n');
+		return out.toString();
+	}
+
+	public void close(){
+		this._explainer.shutdownNow();
+	}
+
+	/**
+	 * @return the SQL text with string and number literals replaced by '?'
+	 *         and whitespace collapsed
+	 */
+	static String shape(String sql){
+		String s = STRING_LITERAL.matcher(sql).replaceAll("?");
+		s = NUMBER_LITERAL.matcher(s).replaceAll("?");
+		return WHITESPACE.matcher(s).replaceAll(" ").trim();
+	}
+
+	private static void appendTable(StringBuilder out, Map<String, Stat> stats){
+		out.append(String.format("%10s%10s%10s%10s%10s%12s%14s%8s  %s\n",
+				"count", "p50", "p95", "p99", "max", "rows", "bytes", "errors", "name"));
+		for(Map.Entry<String, Stat> e : new TreeMap<String, Stat>(stats).entrySet()){
+			Stat s = e.getValue();
+			LatencyHistogram h = s.latency;
+			out.append(String.format("%10d%10.2f%10.2f%10.2f%10.2f%12d%14d%8d  %s\n",
+					h.getCount(), h.percentile(50) / 1000.0, h.percentile(95) / 1000.0, h.percentile(99) / 1000.0,
+					h.getMax() / 1000.0, s.rows.sum(), s.bytes.sum(), s.errors.sum(), e.getKey()));
+		}
+	}
+
+	private void logSlow(String sql, Object[] params, long nanos, String operation){
+		if(!EXPLAINABLE.matcher(sql).matches()){
+			writeSlow(sql, params, nanos, operation, "(no plan for this statement type)");
+			return;
+		}
+		try{
+			this._explainer.execute(() -> writeSlow(sql, params, nanos, operation, explain(sql, params)));
+		}catch(RejectedExecutionException e){
+			writeSlow(sql, params, nanos, operation, "(plan skipped, explain queue full)");
+		}
+	}
+
+	private String explain(String sql, Object[] params){
+		ConnectionPool.PooledConnection pc = null;
+		try{
+			pc = this._pool.borrow();
+			Connection conn = pc.getConnection();
+			// ANALYZE runs the statement, only when it can not change anything
+			boolean analyze = QUERY.matcher(sql).matches() && !SIDE_EFFECT.matcher(sql).find();
+			conn.setAutoCommit(false);
+			StringBuilder plan = new StringBuilder();
+			PreparedStatement stmt = conn.prepareStatement((analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql);
+			MechanicShop.bindParams(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			while(rs.next()){
+				plan.append(rs.getString(1)).append('\n');
+			}
+			stmt.close();
+			conn.rollback();
+			return plan.toString();
+		}catch(SQLException e){
+			return "(explain failed: " + e.getMessage() + ")";
+		}finally{
+			this._pool.release(pc);
+		}
+	}
+
+	private synchronized void writeSlow(String sql, Object[] params, long nanos, String operation, String plan){
+		try(PrintWriter log = new PrintWriter(new FileWriter(this._slowLogFile, true))){
+			log.printf("-- %s  %.3f ms  operation: %s\n", LocalDateTime.now(), nanos / 1e6, operation);
+			log.println(sql);
+			if(params.length > 0){
+				log.println("-- parameters: " + Arrays.toString(params));
+			}
+			log.println(plan);
+		}catch(IOException e){
+			System.err.println("Unable to write slow query log: " + e.getMessage());
+		}
+	}
+}
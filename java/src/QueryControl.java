@@ -0,0 +1,84 @@
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class limits and cancels a query run by another thread.  The
+ * timeout is applied with Statement.setQueryTimeout, cancel() sends the
+ * driver's cancel request for the statement that is running, and a
+ * streamed query also stops between fetches once cancelled.
+ *
+ */
+
+public class QueryControl{
+	//SQLSTATE the server reports for a cancelled statement
+	static final String QUERY_CANCELED = "57014";
+
+	private final int _timeoutSeconds;
+	private Statement _running = null;
+	private volatile boolean _cancelled = false;
+
+	/**
+	 * @param timeoutSeconds longest a query may run, 0 for no limit
+	 */
+	public QueryControl(int timeoutSeconds){
+		this._timeoutSeconds = timeoutSeconds;
+	}
+
+	public int getTimeoutSeconds(){
+		return this._timeoutSeconds;
+	}
+
+	public boolean isCancelled(){
+		return this._cancelled;
+	}
+
+	/**
+	 * Method to stop the query.  A query that has not started yet fails as
+	 * soon as it is attached.
+	 */
+	public void cancel(){
+		Statement running;
+		synchronized(this){
+			this._cancelled = true;
+			running = this._running;
+		}
+		if(running != null){
+			try{
+				running.cancel();
+			}catch(SQLException e){
+				// the query finished in the meantime
+			}
+		}
+	}
+
+	/**
+	 * Method to apply the timeout to a statement about to run and make it
+	 * the one cancel() stops.
+	 *
+	 * @throws java.sql.SQLException when the query was already cancelled
+	 */
+	synchronized void attach(Statement stmt) throws SQLException {
+		checkCancelled();
+		stmt.setQueryTimeout(this._timeoutSeconds);
+		this._running = stmt;
+	}
+
+	/**
+	 * Method to release the statement after it ran.  Its timeout is reset
+	 * since cached statements are reused by other queries.
+	 */
+	synchronized void detach(Statement stmt){
+		this._running = null;
+		try{
+			stmt.setQueryTimeout(0);
+		}catch(SQLException e){
+			// the statement is closed, nothing to reset
+		}
+	}
+
+	void checkCancelled() throws SQLException {
+		if(this._cancelled){
+			throw new SQLException("canceling statement due to user request", QUERY_CANCELED);
+		}
+	}
+}
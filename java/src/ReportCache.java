@@ -0,0 +1,424 @@
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class keeps the rows of the reports of menu entries 6 to 10 that
+ * ran as SQL, keyed by report and parameters, so running a report again
+ * with no write in between does not query the database.
+ *
+ * Every table has a generation counter.  Writes made through MechanicShop
+ * bump the counters of the tables their statement names (see
+ * MechanicShop.invalidateReports), and a cached report is only served
+ * while the generations of the tables it reads are those it was computed
+ * at.  The generations are read before the query runs, so a write racing
+ * with it leaves an entry that is never served.
+ *
+ * Other processes' writes are only seen with -DreportCache.notify=true:
+ * statement triggers then NOTIFY the written table, and a listener bumps
+ * it here, within LISTEN_POLL_MILLIS.
+ *
+ * Entries are held up to -DreportCache.maxBytes (estimated) and evicted
+ * least recently used first; a report larger than the bound is not kept.
+ *
+ */
+
+public class ReportCache{
+	//the tables reports read, indexes into the generation counters
+	private static final String[] TABLES = {
+		"customer", "mechanic", "car", "owns", "service_request", "closed_request", "customer_bill_total"
+	};
+	//tables read by reports 6 to 10, with or without a date range
+	private static final String[][] REPORT_TABLES = {
+		{"customer", "service_request", "closed_request"},
+		{"customer", "owns"},
+		{"car", "service_request"},
+		{"car", "service_request"},
+		{"customer", "customer_bill_total", "owns", "service_request", "closed_request"}
+	};
+	//the table a statement writes and, for a list, the ones after it
+	private static final Pattern WRITE = Pattern.compile(
+			"(?i)\\b(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM|TRUNCATE(?:\\s+TABLE)?|COPY)\\s+(\\w+(?:\\s*,\\s*\\w+)*)");
+	//functions and triggers writing tables the statement does not name
+	private static final String[][] IMPLIED = {
+		{"open_service_request", "customer", "car", "owns", "service_request", "customer_bill_total"},
+		{"close_service_request", "closed_request", "customer_bill_total"},
+		{"owns", "customer_bill_total"},
+		{"closed_request", "customer_bill_total"}
+	};
+	private static final Pattern PARTITION = Pattern.compile("_y\\d{4}$");
+	static final String CHANNEL = "report_cache";
+	private static final long LISTEN_POLL_MILLIS = 250;
+	//estimated heap bytes of a row array, a reference and a boxed value
+	private static final int ROW_OVERHEAD = 16;
+	private static final int REFERENCE = 8;
+	private static final int STRING_OVERHEAD = 40;
+	private static final int NUMBER_OVERHEAD = 24;
+
+	/**
+	 * The rows of one report and the generations they were read at.
+	 */
+	private static class Entry{
+		final String[] labels;
+		final List<Object[]> rows;
+		final long bytes;
+		final int[] tables;
+		final long[] generations;
+
+		Entry(String[] labels, List<Object[]> rows, long bytes, int[] tables, long[] generations){
+			this.labels = labels;
+			this.rows = rows;
+			this.bytes = bytes;
+			this.tables = tables;
+			this.generations = generations;
+		}
+	}
+
+	private final long _maxBytes;
+	private final AtomicLongArray _generations = new AtomicLongArray(TABLES.length);
+	private final ReentrantLock _lock = new ReentrantLock();
+	private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private volatile Thread _listener = null;
+
+	//guarded by _lock
+	private long _bytes = 0;
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+	private long _stale = 0;
+	private long _notifications = 0;
+
+	/**
+	 * @param maxBytes estimated heap the cached rows may take, 0 to cache
+	 *        nothing
+	 */
+	public ReportCache(long maxBytes){
+		this._maxBytes = maxBytes;
+	}
+
+	public boolean isEnabled(){
+		return this._maxBytes > 0;
+	}
+
+	/**
+	 * @return the key of a report run
+	 */
+	static String key(int report, int k, DateRange range){
+		return report + "/" + k + "/" + (range == null ? "" : range.toString());
+	}
+
+	/**
+	 * Method to render a cached report.
+	 *
+	 * @return whether the report was cached and current, false when it has
+	 *         to be run
+	 */
+	public boolean render(String key, ResultRenderer out){
+		Entry e;
+		this._lock.lock();
+		try{
+			e = this._entries.get(key);
+			if(e != null && !isCurrent(e)){
+				remove(key);
+				this._stale++;
+				e = null;
+			}
+			if(e == null){
+				this._misses++;
+				return false;
+			}
+			this._hits++;
+		}finally{
+			this._lock.unlock();
+		}
+		// entries are never modified, rendering needs no lock
+		out.columns(e.labels);
+		for(Object[] row : e.rows){
+			out.row(row);
+		}
+		return true;
+	}
+
+	/**
+	 * Method to start keeping the rows of a report as they are rendered.
+	 * Call before the query runs, then complete() once it returned.
+	 *
+	 * @param out where the rows go, as without the cache
+	 * @return the handler to run the query into
+	 */
+	public Capture capture(String key, int report, ResultRenderer out){
+		String[] names = REPORT_TABLES[report - 6];
+		int[] tables = new int[names.length];
+		long[] generations = new long[names.length];
+		for(int i = 0; i < names.length; i++){
+			tables[i] = indexOf(names[i]);
+			generations[i] = this._generations.get(tables[i]);
+		}
+		return new Capture(key, tables, generations, out);
+	}
+
+	/**
+	 * Renders the rows of a query and keeps a copy for the cache, until
+	 * they outgrow it.
+	 */
+	public class Capture implements RowHandler{
+		private final String _key;
+		private final int[] _tables;
+		private final long[] _generations;
+		private final ResultRenderer _out;
+		private String[] _labels;
+		private boolean[] _numeric;
+		private List<Object[]> _rows = new ArrayList<Object[]>();
+		private long _bytes = 0;
+
+		Capture(String key, int[] tables, long[] generations, ResultRenderer out){
+			this._key = key;
+			this._tables = tables;
+			this._generations = generations;
+			this._out = out;
+		}
+
+		@Override
+		public void start(ResultSetMetaData md) throws SQLException {
+			int n = md.getColumnCount();
+			this._labels = new String[n];
+			this._numeric = new boolean[n];
+			for(int i = 0; i < n; i++){
+				this._labels[i] = md.getColumnLabel(i + 1);
+				this._numeric[i] = ResultRenderer.isNumeric(md.getColumnType(i + 1));
+			}
+			this._out.start(md);
+		}
+
+		@Override
+		public void handleRow(ResultSet rs) throws SQLException {
+			this._out.handleRow(rs);
+			if(this._rows == null){
+				return;
+			}
+			Object[] row = new Object[this._labels.length];
+			long bytes = ROW_OVERHEAD + (long) REFERENCE * row.length;
+			for(int i = 0; i < row.length; i++){
+				// numbers stay numbers, so they render unquoted
+				row[i] = this._numeric[i] ? rs.getObject(i + 1) : rs.getString(i + 1);
+				if(row[i] instanceof String){
+					bytes += STRING_OVERHEAD + ((String) row[i]).length();
+				}else if(row[i] != null){
+					bytes += NUMBER_OVERHEAD;
+				}
+			}
+			this._bytes += bytes;
+			if(this._bytes > _maxBytes){
+				// too large to keep, the rendering goes on
+				this._rows = null;
+				return;
+			}
+			this._rows.add(row);
+		}
+
+		@Override
+		public long getCharCount(){
+			return this._out.getCharCount();
+		}
+
+		/**
+		 * Method to keep the captured report, unless it grew too large or
+		 * a table it reads was written meanwhile.
+		 */
+		public void complete(){
+			if(this._rows == null || this._labels == null){
+				return;
+			}
+			Entry e = new Entry(this._labels, this._rows, this._bytes, this._tables, this._generations);
+			_lock.lock();
+			try{
+				if(!isCurrent(e)){
+					return;
+				}
+				remove(this._key);
+				_entries.put(this._key, e);
+				ReportCache.this._bytes += e.bytes;
+				Iterator<Map.Entry<String, Entry>> eldest = _entries.entrySet().iterator();
+				while(ReportCache.this._bytes > _maxBytes && eldest.hasNext()){
+					Entry evicted = eldest.next().getValue();
+					eldest.remove();
+					ReportCache.this._bytes -= evicted.bytes;
+					_evictions++;
+				}
+			}finally{
+				_lock.unlock();
+			}
+		}
+	}//end Capture
+
+	private boolean isCurrent(Entry e){
+		for(int i = 0; i < e.tables.length; i++){
+			if(this._generations.get(e.tables[i]) != e.generations[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void remove(String key){
+		Entry old = this._entries.remove(key);
+		if(old != null){
+			this._bytes -= old.bytes;
+		}
+	}
+
+	/**
+	 * Method to bump the generations of the tables a statement writes,
+	 * including those written by the functions and triggers it sets off.
+	 * Reading statements are left alone.
+	 */
+	public void written(String sql){
+		Matcher m = WRITE.matcher(sql);
+		while(m.find()){
+			for(String table : m.group(1).split(",")){
+				bump(table.trim());
+			}
+		}
+		String lower = sql.toLowerCase();
+		for(String[] implied : IMPLIED){
+			// the functions, the tables were bumped above
+			if(!isTable(implied[0]) && lower.contains(implied[0])){
+				for(int i = 1; i < implied.length; i++){
+					bump(implied[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Method to bump the generation of a table, and of the tables its
+	 * triggers maintain.
+	 */
+	public void bump(String table){
+		String name = PARTITION.matcher(table.toLowerCase()).replaceFirst("");
+		int i = indexOf(name);
+		if(i < 0){
+			return;
+		}
+		this._generations.incrementAndGet(i);
+		for(String[] implied : IMPLIED){
+			if(implied[0].equals(name)){
+				for(int j = 1; j < implied.length; j++){
+					this._generations.incrementAndGet(indexOf(implied[j]));
+				}
+			}
+		}
+	}
+
+	private static int indexOf(String table){
+		return Arrays.asList(TABLES).indexOf(table);
+	}
+
+	private static boolean isTable(String name){
+		return indexOf(name) >= 0;
+	}
+
+	/**
+	 * Method to drop every entry, after writes the statements do not show.
+	 */
+	public void clear(){
+		for(int i = 0; i < TABLES.length; i++){
+			this._generations.incrementAndGet(i);
+		}
+	}
+
+	/**
+	 * Method to listen for the table notifications of other processes on a
+	 * connection of the pool, held until close().  The notify triggers of
+	 * V9__report_cache_notify.sql are turned on for every process.
+	 *
+	 * @throws java.sql.SQLException when the triggers can not be enabled
+	 */
+	public void listen(ConnectionPool pool) throws SQLException {
+		ConnectionPool.PooledConnection pc = pool.borrow();
+		try{
+			Statement stmt = pc.getConnection().createStatement();
+			stmt.execute("SELECT set_report_cache_notify(true)");
+			stmt.execute("LISTEN " + CHANNEL);
+			stmt.close();
+		}catch(SQLException e){
+			pool.release(pc);
+			throw e;
+		}
+		// writes before LISTEN took effect were not heard
+		clear();
+		Thread listener = new Thread(() -> poll(pool, pc), "report-cache-listener");
+		listener.setDaemon(true);
+		this._listener = listener;
+		listener.start();
+	}
+
+	private void poll(ConnectionPool pool, ConnectionPool.PooledConnection pc){
+		try{
+			Connection conn = pc.getConnection();
+			PGConnection pg = conn.unwrap(PGConnection.class);
+			Statement stmt = conn.createStatement();
+			while(!Thread.currentThread().isInterrupted()){
+				// this driver only receives notifications along with a reply
+				stmt.execute("SELECT 1");
+				PGNotification[] notes = pg.getNotifications();
+				if(notes != null){
+					for(PGNotification n : notes){
+						bump(n.getParameter());
+					}
+					this._lock.lock();
+					try{
+						this._notifications += notes.length;
+					}finally{
+						this._lock.unlock();
+					}
+				}
+				Thread.sleep(LISTEN_POLL_MILLIS);
+			}
+		}catch(InterruptedException e){
+			// closing
+		}catch(SQLException e){
+			// without notifications other processes' writes go unseen
+			System.err.println("Report cache stopped listening: " + e.getMessage());
+			clear();
+		}finally{
+			pool.release(pc);
+		}
+	}
+
+	public String getStats(){
+		this._lock.lock();
+		try{
+			long lookups = this._hits + this._misses;
+			return String.format("Report cache: %d entries, %d KB of %d KB, %d hits, %d misses (%.1f%% hit ratio), "
+					+ "%d evicted, %d stale%s",
+					this._entries.size(), this._bytes / 1024, this._maxBytes / 1024, this._hits, this._misses,
+					lookups == 0 ? 0.0 : 100.0 * this._hits / lookups, this._evictions, this._stale,
+					this._listener != null ? ", " + this._notifications + " notifications" : "");
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	public void close(){
+		Thread listener = this._listener;
+		if(listener != null){
+			listener.interrupt();
+		}
+	}
+}
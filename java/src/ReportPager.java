@@ -0,0 +1,298 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * This class pages through a long report on the terminal.  Pages are read
+ * with keyset pagination: the next page is the rows after the sort key of
+ * the last row shown, the previous page the rows before the first one,
+ * read in reverse order.  With an index on the sort key every page is a
+ * short range scan, as cheap on the last page as on the first; no OFFSET
+ * is ever used.
+ *
+ * Reports already computed in memory (see AnalyticsSnapshot) are paged the
+ * same way, keyed by their position in the result.
+ *
+ */
+
+public class ReportPager{
+	//rows shown per page
+	static final int PAGE_SIZE = Integer.getInteger("report.pageSize", 20);
+
+	/**
+	 * The queries of one paged report.  Every query returns the shown
+	 * columns followed by the sort key columns and ends in LIMIT ?.  The
+	 * after and before queries take the key of a row as parameters, listed
+	 * by key column in afterKeys and beforeKeys.  The before and last
+	 * queries return their rows in reverse order.
+	 */
+	public static class Listing{
+		final String[] labels;
+		final String first;
+		final String after;
+		final int[] afterKeys;
+		final String before;
+		final int[] beforeKeys;
+		final String last;
+		final String jump;
+		final String jumpPrompt;
+
+		public Listing(String[] labels, String first, String after, int[] afterKeys, String before, int[] beforeKeys,
+				String last, String jump, String jumpPrompt){
+			this.labels = labels;
+			this.first = first;
+			this.after = after;
+			this.afterKeys = afterKeys;
+			this.before = before;
+			this.beforeKeys = beforeKeys;
+			this.last = last;
+			this.jump = jump;
+			this.jumpPrompt = jumpPrompt;
+		}
+	}
+
+	/**
+	 * A report held in memory, in display order.
+	 */
+	public static class Rows{
+		final String[] labels;
+		final List<Object[]> rows;
+		final String jumpPrompt;
+		final ToIntFunction<String> jump;
+
+		/**
+		 * @param jump position of the first row at or past the value the
+		 *        user entered
+		 */
+		public Rows(String[] labels, List<Object[]> rows, String jumpPrompt, ToIntFunction<String> jump){
+			this.labels = labels;
+			this.rows = rows;
+			this.jumpPrompt = jumpPrompt;
+			this.jump = jump;
+		}
+	}
+
+	/**
+	 * Reads the pages of a report.  Rows hold the shown columns followed by
+	 * whatever key the source needs to find the neighbouring pages.
+	 */
+	private interface Source{
+		List<Object[]> first(int n) throws Exception;
+		List<Object[]> after(Object[] row, int n) throws Exception;
+		List<Object[]> before(Object[] row, int n) throws Exception;
+		List<Object[]> last(int n) throws Exception;
+		List<Object[]> from(String value, int n) throws Exception;
+	}
+
+	private final String[] _labels;
+	private final String _jumpPrompt;
+	private final Source _source;
+	private final int _pageSize;
+
+	public ReportPager(MechanicShop esql, Listing listing, int pageSize){
+		this._labels = listing.labels;
+		this._jumpPrompt = listing.jumpPrompt;
+		this._source = new QuerySource(esql, listing);
+		this._pageSize = pageSize;
+	}
+
+	public ReportPager(Rows rows, int pageSize){
+		this._labels = rows.labels;
+		this._jumpPrompt = rows.jumpPrompt;
+		this._source = new MemorySource(rows);
+		this._pageSize = pageSize;
+	}
+
+	/**
+	 * Method to show the first page and follow the paging commands read
+	 * from the console until the user quits.
+	 *
+	 * @throws java.lang.Exception when a page query fails
+	 */
+	public void run() throws Exception {
+		List<Object[]> page = this._source.first(this._pageSize);
+		show(page);
+		while(true){
+			System.out.println("[n]ext, [p]revious, [f]irst, [l]ast, [j]ump to " + this._jumpPrompt + ", [q]uit:");
+			String command = MechanicShop.in.readLine();
+			if(command == null){
+				return;
+			}
+			command = command.trim();
+			List<Object[]> next;
+			switch(command.isEmpty() ? 'n' : Character.toLowerCase(command.charAt(0))){
+				case 'n':
+					next = page.size() < this._pageSize ? Collections.<Object[]>emptyList()
+							: this._source.after(page.get(page.size() - 1), this._pageSize);
+					if(next.isEmpty()){
+						System.out.println("End of the listing.");
+						continue;
+					}
+					break;
+				case 'p':
+					next = page.isEmpty() ? Collections.<Object[]>emptyList()
+							: this._source.before(page.get(0), this._pageSize);
+					if(next.isEmpty()){
+						System.out.println("Start of the listing.");
+						continue;
+					}
+					break;
+				case 'f':
+					next = this._source.first(this._pageSize);
+					break;
+				case 'l':
+					next = this._source.last(this._pageSize);
+					break;
+				case 'j':
+					System.out.println("Enter " + this._jumpPrompt + ":");
+					String from = MechanicShop.in.readLine();
+					if(from == null){
+						return;
+					}
+					try{
+						next = this._source.from(from.trim(), this._pageSize);
+					}catch(SQLException e){
+						// data exceptions are typos in the value, not failures
+						if(e.getSQLState() == null || !e.getSQLState().startsWith("22")){
+							throw e;
+						}
+						System.out.println("Your input is invalid!");
+						continue;
+					}catch(NumberFormatException e){
+						System.out.println("Your input is invalid!");
+						continue;
+					}
+					if(next.isEmpty()){
+						System.out.println("No rows from there on.");
+						continue;
+					}
+					break;
+				case 'q':
+					return;
+				default:
+					System.out.println("Your input is invalid!");
+					continue;
+			}
+			page = next;
+			show(page);
+		}
+	}//end run
+
+	private void show(List<Object[]> page) throws Exception {
+		try(ResultRenderer out = ResultRenderer.text()){
+			out.columns(this._labels);
+			for(Object[] row : page){
+				out.row(Arrays.copyOf(row, this._labels.length));
+			}
+		}
+	}
+
+	/**
+	 * Pages read from the database with the queries of a Listing.
+	 */
+	private static class QuerySource implements Source{
+		private final MechanicShop _esql;
+		private final Listing _listing;
+
+		QuerySource(MechanicShop esql, Listing listing){
+			this._esql = esql;
+			this._listing = listing;
+		}
+
+		public List<Object[]> first(int n) throws Exception {
+			return fetch(this._listing.first, false, n);
+		}
+
+		public List<Object[]> after(Object[] row, int n) throws Exception {
+			return fetch(this._listing.after, false, n, key(row, this._listing.afterKeys));
+		}
+
+		public List<Object[]> before(Object[] row, int n) throws Exception {
+			return fetch(this._listing.before, true, n, key(row, this._listing.beforeKeys));
+		}
+
+		public List<Object[]> last(int n) throws Exception {
+			return fetch(this._listing.last, true, n);
+		}
+
+		public List<Object[]> from(String value, int n) throws Exception {
+			return fetch(this._listing.jump, false, n, value);
+		}
+
+		private List<Object[]> fetch(String query, boolean reversed, int n, Object... key) throws Exception {
+			Object[] params = Arrays.copyOf(key, key.length + 1);
+			params[key.length] = n;
+			// keys stay typed, a date or bill goes back to the next query as is
+			List<Object[]> rows = this._esql.executeQueryAndMap(query, rs -> {
+				Object[] row = new Object[rs.getMetaData().getColumnCount()];
+				for(int i = 0; i < row.length; i++){
+					row[i] = rs.getObject(i + 1);
+				}
+				return row;
+			}, params);
+			if(reversed){
+				Collections.reverse(rows);
+			}
+			return rows;
+		}
+
+		private Object[] key(Object[] row, int[] keyColumns){
+			Object[] key = new Object[keyColumns.length];
+			for(int i = 0; i < keyColumns.length; i++){
+				key[i] = row[this._listing.labels.length + keyColumns[i]];
+			}
+			return key;
+		}
+	}
+
+	/**
+	 * Pages of a report held in memory, keyed by row position.
+	 */
+	private static class MemorySource implements Source{
+		private final Rows _rows;
+
+		MemorySource(Rows rows){
+			this._rows = rows;
+		}
+
+		public List<Object[]> first(int n){
+			return page(0, n);
+		}
+
+		public List<Object[]> after(Object[] row, int n){
+			return page(position(row) + 1, n);
+		}
+
+		public List<Object[]> before(Object[] row, int n){
+			int end = position(row);
+			return page(Math.max(0, end - n), end - Math.max(0, end - n));
+		}
+
+		public List<Object[]> last(int n){
+			return page(Math.max(0, this._rows.rows.size() - n), n);
+		}
+
+		public List<Object[]> from(String value, int n){
+			return page(this._rows.jump.applyAsInt(value), n);
+		}
+
+		private int position(Object[] row){
+			return (Integer) row[row.length - 1];
+		}
+
+		private List<Object[]> page(int start, int n){
+			int end = Math.min(start + n, this._rows.rows.size());
+			List<Object[]> page = new ArrayList<Object[]>();
+			for(int i = start; i < end; i++){
+				Object[] row = this._rows.rows.get(i);
+				Object[] keyed = Arrays.copyOf(row, row.length + 1);
+				keyed[row.length] = i;
+				page.add(keyed);
+			}
+			return page;
+		}
+	}
+}
@@ -0,0 +1,458 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * This class renders query results as an aligned text table, CSV or JSON.
+ * Output goes through one large buffer that is flushed when the renderer
+ * is closed, cells are copied straight from the driver's strings and
+ * padding comes from a shared array, so no objects are made per cell.
+ * Text column widths come from the result set metadata, so rows can be
+ * printed as they stream in.
+ *
+ * A renderer is a RowHandler and can be handed to
+ * executeQueryAndStreamResult directly, headings are the column labels of
+ * the query.  Rows that do not come from the database are passed to row()
+ * after naming the columns.  Trailing blanks of CHAR columns are dropped
+ * in every format.
+ *
+ */
+
+public abstract class ResultRenderer implements RowHandler, AutoCloseable{
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Writer _out;
+	private final boolean _ownsOut;
+	private String[] _labels = null;
+	private boolean[] _numeric = null;
+	private boolean _started = false;
+	private long _rows = 0;
+	private long _chars = 0;
+
+	/**
+	 * @param out where the rendering is written
+	 * @param ownsOut whether close() closes out or only flushes it
+	 */
+	protected ResultRenderer(Writer out, boolean ownsOut){
+		this._out = out;
+		this._ownsOut = ownsOut;
+	}
+
+	/**
+	 * @return a text table renderer on standard out
+	 */
+	public static ResultRenderer text(){
+		// System.out is left open, only the buffer is flushed on close
+		return new Text(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), BUFFER_SIZE), false);
+	}
+
+	/**
+	 * @return a text table renderer writing to out, which is flushed but
+	 *         not closed on close
+	 */
+	public static ResultRenderer text(Writer out){
+		return new Text(out, false);
+	}
+
+	/**
+	 * @return a JSON renderer writing to out, which is flushed but not
+	 *         closed on close
+	 */
+	public static ResultRenderer json(Writer out){
+		return new Json(out, false);
+	}
+
+	/**
+	 * @return a renderer writing a file, CSV unless the name ends in .json
+	 * @throws java.io.IOException when the file can not be created
+	 */
+	public static ResultRenderer file(String path) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE);
+		if(path.toLowerCase().endsWith(".json")){
+			return new Json(out, true);
+		}
+		return new Csv(out, true);
+	}
+
+	/**
+	 * Method to name the columns of the rows passed to row().
+	 */
+	public ResultRenderer columns(String... labels){
+		this._labels = labels;
+		return this;
+	}
+
+	/**
+	 * Method to write the heading as soon as the query returned, so it
+	 * is there even when no rows follow.
+	 */
+	@Override
+	public void start(ResultSetMetaData md) throws SQLException {
+		int n = md.getColumnCount();
+		this._labels = new String[n];
+		this._numeric = new boolean[n];
+		for(int i = 0; i < n; i++){
+			this._labels[i] = md.getColumnLabel(i + 1);
+			this._numeric[i] = isNumeric(md.getColumnType(i + 1));
+		}
+		try{
+			begin(md);
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void handleRow(ResultSet rs) throws SQLException {
+		if(!this._started){
+			start(rs.getMetaData());
+		}
+		try{
+			beginRow(this._rows);
+			for(int i = 0; i < this._labels.length; i++){
+				String value = rs.getString(i + 1);
+				if(value != null){
+					this._chars += value.length();
+				}
+				cell(i, value, this._numeric[i]);
+			}
+			endRow();
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		this._rows++;
+	}
+
+	/**
+	 * Method to render a row that does not come from a result set.  Numbers
+	 * are written unquoted.
+	 */
+	public void row(Object... values){
+		try{
+			if(!this._started){
+				begin(null);
+			}
+			beginRow(this._rows);
+			for(int i = 0; i < values.length; i++){
+				Object v = values[i];
+				cell(i, v == null ? null : v.toString(), v instanceof Number);
+			}
+			endRow();
+		}catch(IOException e){
+			throw new UncheckedIOException(e);
+		}
+		this._rows++;
+	}
+
+	public long getRowCount(){
+		return this._rows;
+	}
+
+	/**
+	 * @return characters of column data read from result sets
+	 */
+	@Override
+	public long getCharCount(){
+		return this._chars;
+	}
+
+	/**
+	 * Method to finish the rendering and flush it.  The heading is still
+	 * written when there were no rows.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(!this._started){
+			begin(null);
+		}
+		end();
+		if(this._ownsOut){
+			this._out.close();
+		}else{
+			this._out.flush();
+		}
+	}
+
+	private void begin(ResultSetMetaData md) throws IOException {
+		this._started = true;
+		if(this._labels == null){
+			this._labels = new String[0];
+		}
+		header(this._labels, md);
+	}
+
+	static boolean isNumeric(int type){
+		switch(type){
+			case Types.TINYINT: case Types.SMALLINT: case Types.INTEGER: case Types.BIGINT:
+			case Types.REAL: case Types.FLOAT: case Types.DOUBLE: case Types.NUMERIC: case Types.DECIMAL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return the length of a value without its trailing blanks
+	 */
+	protected static int trimmedLength(String value){
+		int end = value.length();
+		while(end > 0 && value.charAt(end - 1) == ' '){
+			end--;
+		}
+		return end;
+	}
+
+	protected Writer out(){
+		return this._out;
+	}
+
+	/**
+	 * @param md metadata of the result, null for rows passed to row()
+	 */
+	protected abstract void header(String[] labels, ResultSetMetaData md) throws IOException;
+
+	protected abstract void beginRow(long index) throws IOException;
+
+	protected abstract void cell(int column, String value, boolean numeric) throws IOException;
+
+	protected abstract void endRow() throws IOException;
+
+	protected abstract void end() throws IOException;
+
+	/**
+	 * Left aligned columns separated by two blanks, headed by the labels and
+	 * a rule.  A value wider than its column pushes the rest of its row
+	 * right instead of being cut.
+	 */
+	static class Text extends ResultRenderer{
+		//width used when there is no metadata or it reports no useful size
+		static final int DEFAULT_WIDTH = 20;
+		static final int MAX_WIDTH = 32;
+		private static final int GAP = 2;
+		private static final char[] BLANKS = new char[MAX_WIDTH + GAP];
+		static{
+			Arrays.fill(BLANKS, ' ');
+		}
+
+		private int[] _widths;
+		private int _pending = 0;
+
+		Text(Writer out, boolean ownsOut){
+			super(out, ownsOut);
+		}
+
+		@Override
+		protected void header(String[] labels, ResultSetMetaData md) throws IOException {
+			this._widths = new int[labels.length];
+			if(labels.length == 0){
+				return;
+			}
+			int total = 0;
+			for(int i = 0; i < labels.length; i++){
+				int size = DEFAULT_WIDTH;
+				if(md != null){
+					try{
+						size = md.getColumnDisplaySize(i + 1);
+					}catch(SQLException e){
+						// keep the default
+					}
+					if(size <= 0){
+						size = DEFAULT_WIDTH;
+					}
+				}
+				this._widths[i] = Math.max(labels[i].length(), Math.min(size, MAX_WIDTH)) + GAP;
+				total += this._widths[i];
+			}
+			beginRow(0);
+			for(int i = 0; i < labels.length; i++){
+				cell(i, labels[i], false);
+			}
+			endRow();
+			for(int i = 0; i < total - GAP; i++){
+				out().write('=');
+			}
+			out().write('\n');
+		}
+
+		@Override
+		protected void beginRow(long index){
+			this._pending = 0;
+		}
+
+		@Override
+		protected void cell(int column, String value, boolean numeric) throws IOException {
+			// padding of the previous cell is only written once a value follows it
+			pad(this._pending);
+			if(value == null){
+				value = "null";
+			}
+			int len = trimmedLength(value);
+			out().write(value, 0, len);
+			int width = column < this._widths.length ? this._widths[column] : DEFAULT_WIDTH + GAP;
+			this._pending = Math.max(width - len, 1);
+		}
+
+		@Override
+		protected void endRow() throws IOException {
+			out().write('\n');
+		}
+
+		@Override
+		protected void end(){
+		}
+
+		private void pad(int n) throws IOException {
+			while(n > 0){
+				int chunk = Math.min(n, BLANKS.length);
+				out().write(BLANKS, 0, chunk);
+				n -= chunk;
+			}
+		}
+	}
+
+	/**
+	 * RFC 4180 CSV with a heading line.  Fields holding a comma, quote or
+	 * line break are quoted.
+	 */
+	static class Csv extends ResultRenderer{
+		Csv(Writer out, boolean ownsOut){
+			super(out, ownsOut);
+		}
+
+		@Override
+		protected void header(String[] labels, ResultSetMetaData md) throws IOException {
+			for(int i = 0; i < labels.length; i++){
+				cell(i, labels[i], false);
+			}
+			endRow();
+		}
+
+		@Override
+		protected void beginRow(long index){
+		}
+
+		@Override
+		protected void cell(int column, String value, boolean numeric) throws IOException {
+			Writer out = out();
+			if(column > 0){
+				out.write(',');
+			}
+			if(value == null){
+				return;
+			}
+			int len = trimmedLength(value);
+			boolean quote = false;
+			for(int i = 0; i < len && !quote; i++){
+				char c = value.charAt(i);
+				quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			if(!quote){
+				out.write(value, 0, len);
+				return;
+			}
+			out.write('"');
+			int from = 0;
+			for(int i = 0; i < len; i++){
+				if(value.charAt(i) == '"'){
+					out.write(value, from, i + 1 - from);
+					out.write('"');
+					from = i + 1;
+				}
+			}
+			out.write(value, from, len - from);
+			out.write('"');
+		}
+
+		@Override
+		protected void endRow() throws IOException {
+			out().write("\r\n");
+		}
+
+		@Override
+		protected void end(){
+		}
+	}
+
+	/**
+	 * A JSON array with one object per row, keyed by the column labels.
+	 * Numeric columns are written as numbers, SQL NULL as null.
+	 */
+	static class Json extends ResultRenderer{
+		private String[] _keys;
+
+		Json(Writer out, boolean ownsOut){
+			super(out, ownsOut);
+		}
+
+		@Override
+		protected void header(String[] labels, ResultSetMetaData md) throws IOException {
+			this._keys = labels;
+			out().write('[');
+		}
+
+		@Override
+		protected void beginRow(long index) throws IOException {
+			out().write(index == 0 ? "\n  {" : ",\n  {");
+		}
+
+		@Override
+		protected void cell(int column, String value, boolean numeric) throws IOException {
+			Writer out = out();
+			if(column > 0){
+				out.write(", ");
+			}
+			string(column < this._keys.length ? this._keys[column] : "column" + (column + 1));
+			out.write(": ");
+			if(value == null){
+				out.write("null");
+			}else if(numeric){
+				out.write(value);
+			}else{
+				string(value);
+			}
+		}
+
+		@Override
+		protected void endRow() throws IOException {
+			out().write('}');
+		}
+
+		@Override
+		protected void end() throws IOException {
+			out().write("\n]\n");
+		}
+
+		private void string(String value) throws IOException {
+			Writer out = out();
+			int len = trimmedLength(value);
+			out.write('"');
+			int from = 0;
+			for(int i = 0; i < len; i++){
+				char c = value.charAt(i);
+				if(c == '"' || c == '\\' || c < 0x20){
+					out.write(value, from, i - from);
+					switch(c){
+						case '"': out.write("\\\""); break;
+						case '\\': out.write("\\\\"); break;
+						case '\n': out.write("\\n"); break;
+						case '\r': out.write("\\r"); break;
+						case '\t': out.write("\\t"); break;
+						default: out.write(String.format("\\u%04x", (int) c)); break;
+					}
+					from = i + 1;
+				}
+			}
+			out.write(value, from, len - from);
+			out.write('"');
+		}
+	}
+}
@@ -0,0 +1,28 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * Callback that receives the rows of a streamed query one at a time.  The
+ * result set is positioned on the current row; implementations must read
+ * the columns they need and must not advance or close it.
+ *
+ */
+
+public interface RowHandler{
+	/**
+	 * Called once after the query returned, before the first row.
+	 */
+	default void start(ResultSetMetaData md) throws SQLException {
+	}
+
+	void handleRow(ResultSet rs) throws SQLException;
+
+	/**
+	 * @return characters of column data read so far, for the statement
+	 *         metrics; 0 when the handler does not measure them
+	 */
+	default long getCharCount(){
+		return 0;
+	}
+}
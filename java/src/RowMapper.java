@@ -0,0 +1,14 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Turns the current row of a result set into one typed value, reading each
+ * column with the getter of its SQL type (getInt, getDate, ...) instead of
+ * going through a String.  The result set is positioned on the row;
+ * implementations must not advance or close it.
+ *
+ */
+
+public interface RowMapper<T>{
+	T map(ResultSet rs) throws SQLException;
+}
@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class brings the database schema up to date once at startup.
+ *
+ * Version 1 is the schema of sql/create.sql, without its data: the COPY
+ * statements read files from the server's data directory, which only
+ * createPostgreDB.sh sets up.  Later versions are the scripts in
+ * sql/migrations named V<version>__<description>.sql.  Every script runs
+ * in its own transaction and the applied version is recorded in the
+ * schema_version table, so each script runs exactly once per database.
+ * An advisory lock keeps two processes starting at the same time from
+ * applying the same script twice.
+ *
+ */
+
+public class SchemaMigrator{
+	//arbitrary key for the advisory lock serializing migrations
+	private static final long MIGRATION_LOCK = 0x4d656368L;
+	private static final Pattern MIGRATION_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+	//where create.sql stops creating the schema and starts loading data
+	private static final String DATA_SECTION = "-- INSERT DATA STATEMENTS --";
+
+	private final ConnectionPool _pool;
+	private final File _sqlDir;
+
+	public SchemaMigrator(ConnectionPool pool, File sqlDir){
+		this._pool = pool;
+		this._sqlDir = sqlDir;
+	}
+
+	/**
+	 * Method to apply every migration newer than the recorded version.
+	 *
+	 * @return the schema version after migrating
+	 * @throws java.sql.SQLException when a migration fails; the failed
+	 *         script is rolled back and later ones are not attempted
+	 * @throws java.io.IOException when a script can not be read
+	 */
+	public int migrate() throws SQLException, IOException {
+		ConnectionPool.PooledConnection pc = this._pool.borrow();
+		try{
+			Connection conn = pc.getConnection();
+			Statement stmt = conn.createStatement();
+			stmt.execute("SELECT pg_advisory_lock(" + MIGRATION_LOCK + ")");
+			try{
+				createVersionTable(stmt);
+				int current = currentVersion(stmt);
+				if(current == 0 && tableExists(stmt, "customer")){
+					// created by createPostgreDB.sh before versions were recorded
+					record(stmt, 1, "create.sql (baseline)");
+					current = 1;
+				}
+
+				TreeMap<Integer, File> scripts = scripts();
+				for(Map.Entry<Integer, File> entry : scripts.tailMap(current, false).entrySet()){
+					apply(conn, entry.getKey(), entry.getValue());
+					current = entry.getKey();
+				}
+				return current;
+			}finally{
+				stmt.execute("SELECT pg_advisory_unlock(" + MIGRATION_LOCK + ")");
+				stmt.close();
+			}
+		}finally{
+			this._pool.release(pc);
+		}
+	}//end migrate
+
+	private TreeMap<Integer, File> scripts() throws IOException {
+		TreeMap<Integer, File> scripts = new TreeMap<Integer, File>();
+		File create = new File(this._sqlDir, "create.sql");
+		if(!create.isFile()){
+			throw new IOException("Schema script not found: " + create.getPath() + " (set -Dschema.dir)");
+		}
+		scripts.put(1, create);
+
+		File[] files = new File(this._sqlDir, "migrations").listFiles();
+		if(files != null){
+			for(File f : files){
+				Matcher m = MIGRATION_NAME.matcher(f.getName());
+				if(!m.matches()){
+					continue;
+				}
+				int version = Integer.parseInt(m.group(1));
+				if(version <= 1 || scripts.put(version, f) != null){
+					throw new IOException("Duplicate or reserved migration version " + version + ": " + f.getName());
+				}
+			}
+		}
+		return scripts;
+	}
+
+	private void apply(Connection conn, int version, File script) throws SQLException, IOException {
+		String sql = new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+		if(version == 1 && sql.contains(DATA_SECTION)){
+			// an empty schema, bulkload fills it from the client
+			sql = sql.substring(0, sql.indexOf(DATA_SECTION));
+		}
+		System.out.println("Applying schema version " + version + " (" + script.getName() + ")...");
+		conn.setAutoCommit(false);
+		try{
+			Statement stmt = conn.createStatement();
+			stmt.execute(sql);
+			// create.sql drops the version table along with everything else
+			createVersionTable(stmt);
+			record(stmt, version, script.getName());
+			stmt.close();
+			conn.commit();
+		}catch(SQLException e){
+			conn.rollback();
+			throw new SQLException("Migration " + script.getName() + " failed: " + e.getMessage(), e);
+		}finally{
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private static void createVersionTable(Statement stmt) throws SQLException {
+		stmt.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (" +
+				"version INTEGER NOT NULL PRIMARY KEY, " +
+				"description TEXT NOT NULL, " +
+				"applied_at TIMESTAMP NOT NULL DEFAULT now())");
+	}
+
+	private static int currentVersion(Statement stmt) throws SQLException {
+		ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version");
+		rs.next();
+		int version = rs.getInt(1);
+		rs.close();
+		return version;
+	}
+
+	private static boolean tableExists(Statement stmt, String table) throws SQLException {
+		ResultSet rs = stmt.executeQuery("SELECT to_regclass('" + table + "') IS NOT NULL");
+		rs.next();
+		boolean exists = rs.getBoolean(1);
+		rs.close();
+		return exists;
+	}
+
+	private static void record(Statement stmt, int version, String description) throws SQLException {
+		stmt.executeUpdate("INSERT INTO schema_version (version, description) VALUES (" + version + ", '"
+				+ description.replace("'", "''") + "')");
+	}
+}
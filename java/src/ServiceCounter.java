@@ -0,0 +1,149 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * This class keeps the number of service requests per car make and model
+ * in memory.  Counts are kept in a map for O(1) lookup and in a tree
+ * ordered by count, so bumping a count costs O(log n) and the top k makes
+ * and models are read in O(k + log n) without touching the database.
+ *
+ * The counter is loaded once from the database and bumped by
+ * InsertServiceRequest.  Requests inserted by other processes are not
+ * seen until the counter is reloaded.
+ *
+ */
+
+public class ServiceCounter{
+	/**
+	 * The service request count of one make and model.
+	 */
+	public static class Entry{
+		private final String _make;
+		private final String _model;
+		private long _count;
+
+		Entry(String make, String model, long count){
+			this._make = make;
+			this._model = model;
+			this._count = count;
+		}
+
+		public String getMake(){
+			return this._make;
+		}
+
+		public String getModel(){
+			return this._model;
+		}
+
+		public long getCount(){
+			return this._count;
+		}
+	}
+
+	//highest count first, ties broken by make and model
+	private static final Comparator<Entry> BY_COUNT = Comparator.comparingLong((Entry e) -> -e._count)
+			.thenComparing(e -> e._make).thenComparing(e -> e._model);
+
+	private static final String COUNT_QUERY = "SELECT c.make, c.model, COUNT(r.rid) cnt " +
+			"FROM car c, service_request r " +
+			"WHERE c.vin = r.car_vin " +
+			"GROUP BY c.make, c.model";
+
+	private final HashMap<String, Entry> _entries = new HashMap<String, Entry>();
+	private final TreeSet<Entry> _ranking = new TreeSet<Entry>(BY_COUNT);
+
+	/**
+	 * Method to replace the counts with the current database aggregate.
+	 *
+	 * @param esql the database to count from
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public void load(MechanicShop esql) throws SQLException {
+		Map<String, Entry> counts = queryCounts(esql);
+		synchronized(this){
+			this._entries.clear();
+			this._ranking.clear();
+			this._entries.putAll(counts);
+			this._ranking.addAll(counts.values());
+		}
+	}//end load
+
+	/**
+	 * Method to count one more service request for a make and model.
+	 */
+	public synchronized void increment(String make, String model){
+		String key = key(make, model);
+		Entry entry = this._entries.get(key);
+		if(entry == null){
+			entry = new Entry(make, model, 0);
+			this._entries.put(key, entry);
+		}else{
+			// the entry has to leave the tree before its sort key changes
+			this._ranking.remove(entry);
+		}
+		entry._count++;
+		this._ranking.add(entry);
+	}//end increment
+
+	/**
+	 * @param k number of entries wanted
+	 * @return copies of the k makes and models with the most service requests
+	 */
+	public synchronized List<Entry> topK(int k){
+		List<Entry> top = new ArrayList<Entry>(Math.max(0, Math.min(k, this._ranking.size())));
+		for(Entry e : this._ranking){
+			if(top.size() >= k){
+				break;
+			}
+			top.add(new Entry(e._make, e._model, e._count));
+		}
+		return top;
+	}//end topK
+
+	/**
+	 * Method to compare the in-memory counts with the SQL aggregate.
+	 *
+	 * @param esql the database to compare against
+	 * @return one line per make and model whose counts differ
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public List<String> check(MechanicShop esql) throws SQLException {
+		Map<String, Entry> actual = queryCounts(esql);
+		List<String> mismatches = new ArrayList<String>();
+		synchronized(this){
+			for(Entry e : actual.values()){
+				Entry mine = this._entries.get(key(e._make, e._model));
+				long count = mine == null ? 0 : mine._count;
+				if(count != e._count){
+					mismatches.add(e._make + " " + e._model + ": counter " + count + ", database " + e._count);
+				}
+			}
+			for(Map.Entry<String, Entry> mine : this._entries.entrySet()){
+				if(!actual.containsKey(mine.getKey()) && mine.getValue()._count != 0){
+					Entry e = mine.getValue();
+					mismatches.add(e._make + " " + e._model + ": counter " + e._count + ", database 0");
+				}
+			}
+		}
+		return mismatches;
+	}//end check
+
+	private static Map<String, Entry> queryCounts(MechanicShop esql) throws SQLException {
+		Map<String, Entry> counts = new HashMap<String, Entry>();
+		esql.executeQueryAndStreamResult(COUNT_QUERY, rs -> {
+			Entry e = new Entry(rs.getString(1), rs.getString(2), rs.getLong(3));
+			counts.put(key(e._make, e._model), e);
+		});
+		return counts;
+	}
+
+	private static String key(String make, String model){
+		return make + '\u0000' + model;
+	}
+}
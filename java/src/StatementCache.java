@@ -0,0 +1,91 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of prepared
+ * statements for one physical connection.  Statements are keyed by their
+ * SQL text, so re-running the same statement reuses the same
+ * PreparedStatement and lets the PostgreSQL driver switch to a server-side
+ * prepared plan.
+ *
+ */
+
+public class StatementCache{
+	//default number of statements kept per connection
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final Connection _connection;
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+	private long _hits = 0;
+	private long _misses = 0;
+
+	public StatementCache(Connection connection, final int capacity){
+		this._connection = connection;
+		// access-ordered map, the eldest entry is the least recently used one
+		this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+				if(size() <= capacity){
+					return false;
+				}
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to return the prepared statement for the given SQL text,
+	 * preparing it on the connection on the first use.  Parameters left
+	 * over from the previous use are cleared.
+	 *
+	 * @param sql the SQL text with '?' placeholders
+	 * @return the cached prepared statement
+	 * @throws java.sql.SQLException when the statement can not be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if(stmt != null && !stmt.isClosed()){
+			this._hits++;
+			stmt.clearParameters();
+			return stmt;
+		}//end if
+		this._misses++;
+		stmt = this._connection.prepareStatement(sql);
+		this._statements.put(sql, stmt);
+		return stmt;
+	}//end prepare
+
+	public synchronized long getHits(){
+		return this._hits;
+	}
+
+	public synchronized long getMisses(){
+		return this._misses;
+	}
+
+	public synchronized int size(){
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close every cached statement.
+	 */
+	public synchronized void close(){
+		for(PreparedStatement stmt : this._statements.values()){
+			closeQuietly(stmt);
+		}
+		this._statements.clear();
+	}//end close
+
+	private static void closeQuietly(PreparedStatement stmt){
+		try{
+			stmt.close();
+		}catch(SQLException e){
+			// ignored.
+		}
+	}
+}
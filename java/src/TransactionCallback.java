@@ -0,0 +1,12 @@
+import java.sql.SQLException;
+
+/**
+ * Unit of work run by MechanicShop.executeTransaction on a pooled
+ * connection with autocommit turned off.  Everything done through the
+ * connection commits when run returns and rolls back when it throws.
+ *
+ */
+
+public interface TransactionCallback<T>{
+	T run(ConnectionPool.PooledConnection pc) throws SQLException;
+}
@@ -0,0 +1,595 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * This class takes the service request and closed request inserts of the
+ * menu off the clerk's path.  An insert is appended to a journal file and
+ * forced to disk, then queued and acknowledged; a background writer drains
+ * the queue and inserts everything waiting in one transaction, so a busy
+ * intake pays one commit for many requests.
+ *
+ * Keys are taken from the sequences before an insert is queued, so an
+ * insert replayed from the journal after a crash either succeeds or finds
+ * its own row already there (unique_violation), and is applied only once.
+ * After each commit the writer appends a done marker to the journal, and
+ * the journal is emptied whenever the queue is.  At startup, entries past
+ * the last marker are replayed before the menu opens.  Every journal line
+ * ends with its checksum; a line torn by a crash fails it and is dropped,
+ * as it was never acknowledged.
+ *
+ * The queue holds at most -DwriteBehind.capacity inserts; when it is full
+ * the clerk waits for the writer.  The checks of the table domains are
+ * made and the request partition of its date is created before an insert
+ * is journaled, so the clerk sees a typo as the synchronous path would.  Inserts the database still refuses are written
+ * to the .rejected file next to the journal.
+ *
+ */
+
+public class WriteBehindQueue implements AutoCloseable{
+	//inserts queued at most before the clerk waits
+	static final int CAPACITY = Integer.getInteger("writeBehind.capacity", 1000);
+	//inserts committed together at most
+	static final int MAX_BATCH = Integer.getInteger("writeBehind.maxBatch", 200);
+	//SQLSTATE of a duplicate key, a replayed insert that was already applied
+	private static final String UNIQUE_VIOLATION = "23505";
+	private static final long RETRY_MILLIS = 1000;
+	private static final long POLL_MILLIS = 200;
+
+	/**
+	 * An insert kind, its statement and the type of each field: i for an
+	 * integer, d for a date, s for text.
+	 */
+	private enum Kind{
+		OPEN_REQUEST("open-request", "iisdis", "INSERT INTO service_request VALUES(?, ?, ?, ?, ?, ?)"),
+		CLOSE_REQUEST("close-request", "iiidsi", "INSERT INTO closed_request VALUES(?, ?, ?, ?, ?, ?)");
+
+		final String command;
+		final String types;
+		final String sql;
+
+		Kind(String command, String types, String sql){
+			this.command = command;
+			this.types = types;
+			this.sql = sql;
+		}
+
+		static Kind of(String command){
+			for(Kind k : values()){
+				if(k.command.equals(command)){
+					return k;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * One queued insert, numbered in journal order.  The make and model of
+	 * a service request are not journaled; a replayed request was counted
+	 * by ServiceCounter.load instead.
+	 */
+	private static class Entry{
+		final long seq;
+		final Kind kind;
+		final String[] fields;
+		final String make;
+		final String model;
+
+		Entry(long seq, Kind kind, String[] fields){
+			this(seq, kind, fields, null, null);
+		}
+
+		Entry(long seq, Kind kind, String[] fields, String make, String model){
+			this.seq = seq;
+			this.kind = kind;
+			this.fields = fields;
+			this.make = make;
+			this.model = model;
+		}
+
+		Object[] params(){
+			Object[] params = new Object[this.fields.length];
+			for(int i = 0; i < params.length; i++){
+				switch(this.kind.types.charAt(i)){
+					case 'i': params[i] = Integer.parseInt(this.fields[i]); break;
+					case 'd': params[i] = java.sql.Date.valueOf(this.fields[i]); break;
+					default: params[i] = this.fields[i]; break;
+				}
+			}
+			return params;
+		}
+
+		int key(){
+			return Integer.parseInt(this.fields[0]);
+		}
+	}
+
+	private final MechanicShop _esql;
+	private final File _journalFile;
+	private final FileChannel _journal;
+	private final BlockingQueue<Entry> _queue = new LinkedBlockingQueue<Entry>();
+	private final Semaphore _slots = new Semaphore(CAPACITY);
+	//rids of queued service requests, so they can be closed before they are written
+	private final Set<Integer> _pendingRequests = ConcurrentHashMap.newKeySet();
+	private final Thread _writer;
+	private long _seq = 0;
+	private volatile boolean _closed = false;
+	private final LongAdder _queued = new LongAdder();
+	private final LongAdder _written = new LongAdder();
+	private final LongAdder _commits = new LongAdder();
+	private final LongAdder _rejected = new LongAdder();
+	private final LongAdder _waits = new LongAdder();
+
+	private WriteBehindQueue(MechanicShop esql, File journalFile) throws IOException {
+		this._esql = esql;
+		this._journalFile = journalFile;
+		this._journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		this._journal.position(this._journal.size());
+		this._writer = new Thread(this::drain, "write-behind");
+		this._writer.setDaemon(true);
+	}
+
+	/**
+	 * Method to open the journal, apply whatever it holds that was not
+	 * written before the last shutdown, and start the writer.
+	 *
+	 * @param esql the database to write to
+	 * @param journalFile the journal, created when missing
+	 * @return the running queue
+	 * @throws java.lang.Exception when the journal can not be read or the
+	 *         replay fails to reach the database
+	 */
+	public static WriteBehindQueue open(MechanicShop esql, File journalFile) throws Exception {
+		WriteBehindQueue q = new WriteBehindQueue(esql, journalFile);
+		int replayed = q.replay();
+		if(replayed > 0){
+			System.out.println("Replayed " + replayed + " journaled insert(s)");
+		}
+		q._writer.start();
+		return q;
+	}
+
+	/**
+	 * Method to queue a new service request.  Returns once the insert is on
+	 * disk, waiting first when the queue is full.
+	 *
+	 * @param make make of the car, counted by the ServiceCounter once the
+	 *        request is written, null for none
+	 * @throws java.lang.IllegalArgumentException when the odometer is not
+	 *         positive, as the _PINTEGER domain requires
+	 * @throws java.lang.Exception when the journal can not be written
+	 */
+	public void openRequest(int rid, int customerId, String carVin, String date, int odometer, String complaint,
+			String make, String model) throws Exception {
+		checkPositive("odometer", odometer);
+		ensurePartition(date);
+		this._pendingRequests.add(rid);
+		try{
+			enqueue(Kind.OPEN_REQUEST, make, model, String.valueOf(rid), String.valueOf(customerId), carVin, date,
+					String.valueOf(odometer), complaint);
+		}catch(Exception e){
+			this._pendingRequests.remove(rid);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to queue the closing of a service request.
+	 *
+	 * @throws java.lang.IllegalArgumentException when the bill is not
+	 *         positive, as the _PINTEGER domain requires
+	 * @throws java.lang.Exception when the journal can not be written
+	 */
+	public void closeRequest(int wid, int rid, int mechanicId, String date, String comment, int bill) throws Exception {
+		checkPositive("bill", bill);
+		ensurePartition(date);
+		enqueue(Kind.CLOSE_REQUEST, null, null, String.valueOf(wid), String.valueOf(rid), String.valueOf(mechanicId), date,
+				comment, String.valueOf(bill));
+	}
+
+	/**
+	 * Method to create the partition a request dated date goes to, so the
+	 * insert is not refused after the clerk was told it was accepted.
+	 */
+	private void ensurePartition(String date) throws SQLException {
+		LocalDate d = LocalDate.parse(date);
+		this._esql.ensurePartitions(d, d);
+	}
+
+	private static void checkPositive(String column, int value){
+		if(value <= 0){
+			throw new IllegalArgumentException("The " + column + " must be a positive number, not " + value);
+		}
+	}
+
+	/**
+	 * @return whether a service request is queued and not yet written
+	 */
+	public boolean isPendingRequest(int rid){
+		return this._pendingRequests.contains(rid);
+	}
+
+	/**
+	 * @return the inserts the database refused since startup
+	 */
+	public long getRejectedCount(){
+		return this._rejected.sum();
+	}
+
+	/**
+	 * @return the file the refused inserts are written to
+	 */
+	public File getRejectedFile(){
+		return new File(this._journalFile.getPath() + ".rejected");
+	}
+
+	/**
+	 * @return counts of queued, written and rejected inserts
+	 */
+	public String getStats(){
+		long commits = this._commits.sum();
+		return String.format("Write-behind: %d queued, %d waiting, %d written in %d commits (%.1f per commit), %d rejected, %d waits on a full queue",
+				this._queued.sum(), this._queue.size(), this._written.sum(), commits,
+				commits == 0 ? 0.0 : (double) this._written.sum() / commits, this._rejected.sum(), this._waits.sum());
+	}
+
+	/**
+	 * Method to stop taking inserts and write the ones still queued.  What
+	 * the database does not take stays in the journal for the next start.
+	 */
+	@Override
+	public void close(){
+		this._closed = true;
+		try{
+			this._writer.join();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+		}
+		try{
+			this._journal.close();
+		}catch(IOException e){
+			// nothing left to flush, the markers were forced when written
+		}
+	}
+
+	private void enqueue(Kind kind, String make, String model, String... fields) throws Exception {
+		if(this._closed){
+			throw new IllegalStateException("Write-behind queue is closed");
+		}
+		// backpressure: the clerk waits for the writer instead of growing the queue
+		if(!this._slots.tryAcquire()){
+			this._waits.increment();
+			System.out.println("Write queue full, waiting for the database...");
+			this._slots.acquire();
+		}
+		try{
+			synchronized(this._journal){
+				Entry e = new Entry(++this._seq, kind, fields, make, model);
+				append(e.seq + " " + kind.command + " " + join(fields));
+				this._queue.add(e);
+			}
+		}catch(Exception e){
+			this._slots.release();
+			throw e;
+		}
+		this._queued.increment();
+	}
+
+	private void drain(){
+		List<Entry> batch = new ArrayList<Entry>(MAX_BATCH);
+		while(true){
+			try{
+				if(batch.isEmpty()){
+					Entry first = this._queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+					if(first == null){
+						if(this._closed){
+							return;
+						}
+						continue;
+					}
+					batch.add(first);
+					// everything that queued up meanwhile shares the commit
+					this._queue.drainTo(batch, MAX_BATCH - 1);
+				}
+				write(batch);
+				finish(batch);
+				batch.clear();
+			}catch(InterruptedException e){
+				return;
+			}catch(Exception e){
+				// the database is unreachable, keep the batch and try again
+				System.err.println("Write-behind: " + e.getMessage() + ", retrying");
+				if(this._closed){
+					System.err.println("Write-behind: " + (batch.size() + this._queue.size()) + " insert(s) left in " + this._journalFile);
+					return;
+				}
+				try{
+					Thread.sleep(RETRY_MILLIS);
+				}catch(InterruptedException ie){
+					return;
+				}
+			}
+		}
+	}//end drain
+
+	/**
+	 * Method to insert a batch in one transaction.  When the batch fails as
+	 * a whole it is run again one insert at a time under savepoints, so
+	 * only the inserts the database refuses are left out.
+	 */
+	private void write(List<Entry> batch) throws SQLException {
+		try{
+			this._esql.executeTransaction(pc -> {
+				// consecutive inserts of one kind go in one round trip
+				for(int i = 0; i < batch.size(); i++){
+					Entry e = batch.get(i);
+					PreparedStatement stmt = pc.getStatements().prepare(e.kind.sql);
+					if(i == 0 || batch.get(i - 1).kind != e.kind){
+						stmt.clearBatch();
+					}
+					MechanicShop.bindParams(stmt, e.params());
+					stmt.addBatch();
+					if(i + 1 == batch.size() || batch.get(i + 1).kind != e.kind){
+						stmt.executeBatch();
+					}
+				}
+				return null;
+			});
+			this._written.add(batch.size());
+			this._commits.increment();
+			invalidateReports(batch);
+			count(batch);
+			return;
+		}catch(SQLException e){
+			if(!isRefusal(e)){
+				throw e;
+			}
+		}
+		List<Entry> written = new ArrayList<Entry>(batch.size());
+		this._esql.executeTransaction(pc -> {
+			Connection conn = pc.getConnection();
+			written.clear();
+			for(Entry e : batch){
+				Savepoint sp = conn.setSavepoint();
+				try{
+					PreparedStatement stmt = pc.getStatements().prepare(e.kind.sql);
+					stmt.clearBatch();
+					MechanicShop.bindParams(stmt, e.params());
+					stmt.executeUpdate();
+					conn.releaseSavepoint(sp);
+					written.add(e);
+				}catch(SQLException ex){
+					if(!isRefusal(ex)){
+						throw ex;
+					}
+					conn.rollback(sp);
+					if(!UNIQUE_VIOLATION.equals(ex.getSQLState())){
+						reject(e, ex);
+					}
+				}
+			}
+			return null;
+		});
+		this._written.add(written.size());
+		this._commits.increment();
+		invalidateReports(batch);
+		count(written);
+	}//end write
+
+	/**
+	 * Method to count the committed service requests in the ServiceCounter,
+	 * so a rejected one never shows in report 9.
+	 */
+	private void count(List<Entry> written){
+		for(Entry e : written){
+			if(e.make != null){
+				this._esql.getServiceCounter().increment(e.make, e.model);
+			}
+		}
+	}
+
+	private void invalidateReports(List<Entry> batch){
+		EnumSet<Kind> kinds = EnumSet.noneOf(Kind.class);
+		for(Entry e : batch){
+			kinds.add(e.kind);
+		}
+		for(Kind kind : kinds){
+			this._esql.invalidateReports(kind.sql);
+		}
+	}
+
+	/**
+	 * @return whether the database refused the data, as opposed to not
+	 *         being reachable (SQLSTATE class 08) or failing otherwise
+	 */
+	private static boolean isRefusal(SQLException e){
+		String state = e.getSQLState();
+		if(state == null && e.getNextException() != null){
+			state = e.getNextException().getSQLState();
+		}
+		return state != null && (state.startsWith("22") || state.startsWith("23"));
+	}
+
+	private void finish(List<Entry> batch) throws IOException {
+		for(Entry e : batch){
+			if(e.kind == Kind.OPEN_REQUEST){
+				this._pendingRequests.remove(e.key());
+			}
+		}
+		synchronized(this._journal){
+			if(this._queue.isEmpty()){
+				// everything journaled is in the database
+				this._journal.truncate(0);
+				this._journal.force(true);
+			}else{
+				append(batch.get(batch.size() - 1).seq + " done");
+			}
+		}
+		this._slots.release(batch.size());
+	}
+
+	private void reject(Entry e, SQLException ex){
+		this._rejected.increment();
+		System.err.println("Write-behind: " + e.kind.command + " " + e.key() + " rejected: " + ex.getMessage());
+		try(PrintWriter out = new PrintWriter(new FileWriter(getRejectedFile(), true))){
+			out.println(e.kind.command + " " + join(e.fields) + " # " + ex.getMessage().replace('\n', ' '));
+		}catch(IOException io){
+			System.err.println("Write-behind: can not record the rejected insert: " + io.getMessage());
+		}
+	}
+
+	/**
+	 * Method to apply the entries after the last done marker.  Replaying an
+	 * insert the database already has is harmless, its key is taken.
+	 */
+	private int replay() throws Exception {
+		List<Entry> pending = new ArrayList<Entry>();
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(this._journalFile), StandardCharsets.UTF_8))){
+			String line;
+			while((line = in.readLine()) != null){
+				line = checked(line);
+				if(line == null){
+					// a line cut short by a crash was never acknowledged
+					continue;
+				}
+				String[] parts = line.split(" ", 3);
+				if(parts.length < 2){
+					continue;
+				}
+				long seq = Long.parseLong(parts[0]);
+				this._seq = Math.max(this._seq, seq);
+				if(parts[1].equals("done")){
+					pending.removeIf(e -> e.seq <= seq);
+					continue;
+				}
+				Kind kind = Kind.of(parts[1]);
+				if(kind == null || parts.length < 3){
+					continue;
+				}
+				String[] fields = split(parts[2]);
+				if(fields.length == kind.types.length()){
+					pending.add(new Entry(seq, kind, fields));
+				}
+			}
+		}
+		for(Entry e : pending){
+			// journaled before the partition was ensured at enqueue time
+			ensurePartition(e.fields[3]);
+		}
+		for(int from = 0; from < pending.size(); from += MAX_BATCH){
+			List<Entry> batch = pending.subList(from, Math.min(from + MAX_BATCH, pending.size()));
+			write(batch);
+		}
+		synchronized(this._journal){
+			this._journal.truncate(0);
+			this._journal.force(true);
+		}
+		return pending.size();
+	}//end replay
+
+	private void append(String line) throws IOException {
+		ByteBuffer bytes = ByteBuffer.wrap((line + " " + checksum(line) + "\n").getBytes(StandardCharsets.UTF_8));
+		while(bytes.hasRemaining()){
+			this._journal.write(bytes);
+		}
+		this._journal.force(false);
+	}
+
+	private static String checksum(String line){
+		CRC32 crc = new CRC32();
+		crc.update(line.getBytes(StandardCharsets.UTF_8));
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * @return the line without its checksum, null when the checksum is
+	 *         missing or does not match
+	 */
+	private static String checked(String line){
+		int end = line.lastIndexOf(' ');
+		if(end < 0){
+			return null;
+		}
+		String body = line.substring(0, end);
+		return checksum(body).equals(line.substring(end + 1)) ? body : null;
+	}
+
+	/**
+	 * @return the fields separated by '|', with '\' escaping '|', '\' and
+	 *         line breaks, and a null field written as \N
+	 */
+	private static String join(String[] fields){
+		StringBuilder b = new StringBuilder();
+		for(int i = 0; i < fields.length; i++){
+			if(i > 0){
+				b.append('|');
+			}
+			if(fields[i] == null){
+				b.append("\\N");
+				continue;
+			}
+			String f = fields[i];
+			for(int j = 0; j < f.length(); j++){
+				char c = f.charAt(j);
+				switch(c){
+					case '|': b.append("\\|"); break;
+					case '\\': b.append("\\\\"); break;
+					case '\n': b.append("\\n"); break;
+					case '\r': b.append("\\r"); break;
+					default: b.append(c); break;
+				}
+			}
+		}
+		return b.toString();
+	}
+
+	private static String[] split(String line){
+		List<String> fields = new ArrayList<String>();
+		StringBuilder f = new StringBuilder();
+		boolean isNull = false;
+		for(int i = 0; i < line.length(); i++){
+			char c = line.charAt(i);
+			if(c == '\\' && i + 1 < line.length()){
+				char next = line.charAt(++i);
+				if(next == 'N'){
+					isNull = true;
+				}else{
+					f.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+				}
+			}else if(c == '|'){
+				fields.add(isNull ? null : f.toString());
+				f.setLength(0);
+				isNull = false;
+			}else{
+				f.append(c);
+			}
+		}
+		fields.add(isNull ? null : f.toString());
+		return fields.toArray(new String[0]);
+	}
+}
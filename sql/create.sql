@@ -4,6 +4,13 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Customer_Bill_Total CASCADE;
+DROP SEQUENCE IF EXISTS customer_id_seq;
+DROP SEQUENCE IF EXISTS owns_ownership_id_seq;
+DROP SEQUENCE IF EXISTS service_request_rid_seq;
+DROP SEQUENCE IF EXISTS closed_request_wid_seq;
+-- recreating the tables undoes every migration, SchemaMigrator reapplies them
+DROP TABLE IF EXISTS schema_version;
 
 
 -------------
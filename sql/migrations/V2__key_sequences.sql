@@ -0,0 +1,24 @@
+-------------------
+---KEY SEQUENCES---
+-------------------
+-- The application reserves keys in blocks (IdGenerator.BLOCK_SIZE), so each
+-- nextval hands out the first key of a block of 20.  A sequence is seeded
+-- past the largest key already loaded when it is created; one that exists
+-- may have blocks handed out and is left alone.
+
+DO $$
+DECLARE
+	s TEXT[];
+BEGIN
+	FOREACH s SLICE 1 IN ARRAY ARRAY[
+			['customer_id_seq', 'customer', 'id'],
+			['owns_ownership_id_seq', 'owns', 'ownership_id'],
+			['service_request_rid_seq', 'service_request', 'rid'],
+			['closed_request_wid_seq', 'closed_request', 'wid']] LOOP
+		IF to_regclass(s[1]) IS NULL THEN
+			EXECUTE format('CREATE SEQUENCE %I INCREMENT BY 20 MINVALUE 0 OWNED BY %I.%I', s[1], s[2], s[3]);
+			EXECUTE format('SELECT setval(%L, (SELECT COALESCE(MAX(%I), -1) + 1 FROM %I), false)', s[1], s[3], s[2]);
+		END IF;
+	END LOOP;
+END
+$$;
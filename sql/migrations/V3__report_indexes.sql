@@ -0,0 +1,27 @@
+---------------------
+---PERMANENT INDEXES---
+---------------------
+-- Replace the indexes the menu operations used to build and drop on every
+-- call.  Each one backs a join or filter of the report queries.
+
+-- ListKCarsWithTheMostServices / ListCarsBefore1995With50000Milles join
+-- service requests to cars
+CREATE INDEX IF NOT EXISTS service_request_car_vin_idx ON Service_Request (car_vin);
+
+-- ListCustomersInDescendingOrderOfTheirTotalBill joins bills to requests
+CREATE INDEX IF NOT EXISTS closed_request_rid_idx ON Closed_Request (rid);
+
+-- ListCustomersWithMoreThan20Cars counts cars per owner, and the intake
+-- flow lists a customer's cars
+CREATE INDEX IF NOT EXISTS owns_customer_id_idx ON Owns (customer_id);
+
+-- ListCustomersWithBillLessThan100 filters on bill
+CREATE INDEX IF NOT EXISTS closed_request_bill_idx ON Closed_Request (bill);
+
+-- ListCarsBefore1995With50000Milles filters on year
+CREATE INDEX IF NOT EXISTS car_year_idx ON Car (year);
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
+ANALYZE Owns;
+ANALYZE Car;
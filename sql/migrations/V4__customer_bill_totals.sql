@@ -0,0 +1,81 @@
+------------------------
+---CUSTOMER BILL TOTALS---
+------------------------
+-- Per-customer total of the bills recorded for the cars the customer owns,
+-- the aggregate behind ListCustomersInDescendingOrderOfTheirTotalBill.
+-- Triggers on Closed_Request and Owns keep it current, so the report is an
+-- ordered index scan instead of a five table join.  MechanicShop's
+-- ReconcileCustomerBillTotals rebuilds it from scratch and reports drift.
+CREATE TABLE IF NOT EXISTS Customer_Bill_Total
+(
+	customer_id INTEGER NOT NULL,
+	total_bill BIGINT NOT NULL,
+	PRIMARY KEY (customer_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id)
+);
+
+CREATE INDEX IF NOT EXISTS customer_bill_total_bill_idx ON Customer_Bill_Total (total_bill DESC, customer_id);
+
+-- add delta to every owner of the car the request was opened for
+CREATE OR REPLACE FUNCTION customer_bill_total_add_bill(p_rid INTEGER, p_delta BIGINT) RETURNS void AS $$
+	INSERT INTO Customer_Bill_Total AS t (customer_id, total_bill)
+	SELECT o.customer_id, SUM(p_delta)
+	FROM Service_Request s JOIN Owns o ON o.car_vin = s.car_vin
+	WHERE s.rid = p_rid
+	GROUP BY o.customer_id
+	ON CONFLICT (customer_id) DO UPDATE SET total_bill = t.total_bill + EXCLUDED.total_bill;
+$$ LANGUAGE sql;
+
+-- add (sign = 1) or remove (sign = -1) the bills of a car for one owner
+CREATE OR REPLACE FUNCTION customer_bill_total_add_owner(p_customer INTEGER, p_vin VARCHAR, p_sign INTEGER) RETURNS void AS $$
+	INSERT INTO Customer_Bill_Total AS t (customer_id, total_bill)
+	SELECT p_customer, p_sign * SUM(r.bill)
+	FROM Service_Request s JOIN Closed_Request r ON r.rid = s.rid
+	WHERE s.car_vin = p_vin
+	HAVING COUNT(*) > 0
+	ON CONFLICT (customer_id) DO UPDATE SET total_bill = t.total_bill + EXCLUDED.total_bill;
+$$ LANGUAGE sql;
+
+CREATE OR REPLACE FUNCTION customer_bill_total_closed_request() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM customer_bill_total_add_bill(OLD.rid, -OLD.bill);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM customer_bill_total_add_bill(NEW.rid, NEW.bill);
+	END IF;
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION customer_bill_total_owns() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		PERFORM customer_bill_total_add_owner(OLD.customer_id, OLD.car_vin, -1);
+	END IF;
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		PERFORM customer_bill_total_add_owner(NEW.customer_id, NEW.car_vin, 1);
+	END IF;
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS customer_bill_total_closed_request ON Closed_Request;
+CREATE TRIGGER customer_bill_total_closed_request
+AFTER INSERT OR UPDATE OF rid, bill OR DELETE ON Closed_Request
+FOR EACH ROW EXECUTE PROCEDURE customer_bill_total_closed_request();
+
+DROP TRIGGER IF EXISTS customer_bill_total_owns ON Owns;
+CREATE TRIGGER customer_bill_total_owns
+AFTER INSERT OR UPDATE OF customer_id, car_vin OR DELETE ON Owns
+FOR EACH ROW EXECUTE PROCEDURE customer_bill_total_owns();
+
+-- initial contents, the same aggregate ReconcileCustomerBillTotals rebuilds
+DELETE FROM Customer_Bill_Total;
+INSERT INTO Customer_Bill_Total (customer_id, total_bill)
+SELECT o.customer_id, SUM(r.bill)
+FROM Owns o, Service_Request s, Closed_Request r
+WHERE o.car_vin = s.car_vin AND r.rid = s.rid
+GROUP BY o.customer_id;
+
+ANALYZE Customer_Bill_Total;
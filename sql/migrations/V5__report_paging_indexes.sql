@@ -0,0 +1,11 @@
+---------------------
+---PAGING INDEXES---
+---------------------
+-- ListCustomersWithBillLessThan100 pages through the small bills in
+-- (date, wid) order.  Only bills under 100 are indexed, so every page is a
+-- range scan that reads no more rows than it shows.
+-- ListCustomersInDescendingOrderOfTheirTotalBill pages on
+-- customer_bill_total_bill_idx (V4).
+CREATE INDEX IF NOT EXISTS closed_request_small_bill_date_idx ON Closed_Request (date, wid) WHERE bill < 100;
+
+ANALYZE Closed_Request;
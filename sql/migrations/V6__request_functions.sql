@@ -0,0 +1,50 @@
+-------------------------
+---REQUEST FUNCTIONS---
+-------------------------
+-- InsertServiceRequest and CloseServiceRequest write through these
+-- functions, so each is a single statement: one round trip and one
+-- transaction.  A failure anywhere leaves no customer, car or ownership
+-- behind.  Keys come from the application's IdGenerator blocks.
+
+-- Opens a service request, first adding the customer when p_fname is not
+-- null, the car when p_make is not null (a VIN already known keeps its
+-- row) and the ownership when p_ownership_id is not null.  Returns the
+-- make and model of the serviced car.
+CREATE OR REPLACE FUNCTION open_service_request(
+	p_rid INTEGER, p_customer_id INTEGER, p_car_vin VARCHAR, p_date DATE, p_odometer INTEGER, p_complain TEXT,
+	p_fname BPCHAR, p_lname BPCHAR, p_phone BPCHAR, p_address BPCHAR,
+	p_make VARCHAR, p_model VARCHAR, p_year INTEGER,
+	p_ownership_id INTEGER)
+RETURNS TABLE (car_make VARCHAR, car_model VARCHAR) AS $$
+BEGIN
+	IF p_fname IS NOT NULL THEN
+		INSERT INTO Customer VALUES (p_customer_id, p_fname, p_lname, p_phone, p_address);
+	END IF;
+	IF p_make IS NOT NULL THEN
+		INSERT INTO Car VALUES (p_car_vin, p_make, p_model, p_year) ON CONFLICT (vin) DO NOTHING;
+	END IF;
+	IF p_ownership_id IS NOT NULL THEN
+		INSERT INTO Owns VALUES (p_ownership_id, p_customer_id, p_car_vin);
+	END IF;
+	INSERT INTO Service_Request VALUES (p_rid, p_customer_id, p_car_vin, p_date, p_odometer, p_complain);
+	RETURN QUERY SELECT c.make, c.model FROM Car c WHERE c.vin = p_car_vin;
+END
+$$ LANGUAGE plpgsql;
+
+-- Closes a service request.  An unknown request or mechanic is reported
+-- with its own SQLSTATE (MS001, MS002) so the caller can ask for that
+-- id again.
+CREATE OR REPLACE FUNCTION close_service_request(
+	p_wid INTEGER, p_rid INTEGER, p_mid INTEGER, p_date DATE, p_comment TEXT, p_bill INTEGER)
+RETURNS void AS $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM Service_Request WHERE rid = p_rid) THEN
+		RAISE EXCEPTION 'Service request % not found', p_rid USING ERRCODE = 'MS001';
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM Mechanic WHERE id = p_mid) THEN
+		RAISE EXCEPTION 'Mechanic % not found', p_mid USING ERRCODE = 'MS002';
+	END IF;
+	-- a trigger adds the bill to the owners' customer_bill_total rows
+	INSERT INTO Closed_Request VALUES (p_wid, p_rid, p_mid, p_date, p_comment, p_bill);
+END
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,200 @@
+---------------------------
+---REQUEST PARTITIONING---
+---------------------------
+-- Service_Request and Closed_Request become range partitioned by date,
+-- one partition per year named <table>_y<year>.  Queries that filter on
+-- date (the reports take an optional date range) only scan the years they
+-- need, and old years can be detached without touching current data.
+-- Needs PostgreSQL 12 or later.
+--
+-- A primary key of a partitioned table has to include the partition key,
+-- so the keys become (rid, date) and (wid, date); rid and wid stay unique
+-- since they come from sequences.  Closed_Request.rid can no longer be a
+-- foreign key, a trigger checks it instead.
+
+DROP TRIGGER IF EXISTS customer_bill_total_closed_request ON Closed_Request;
+ALTER SEQUENCE service_request_rid_seq OWNED BY NONE;
+ALTER SEQUENCE closed_request_wid_seq OWNED BY NONE;
+ALTER TABLE Closed_Request RENAME TO closed_request_unpartitioned;
+ALTER TABLE Service_Request RENAME TO service_request_unpartitioned;
+-- free the index names for the new tables
+ALTER INDEX closed_request_pkey RENAME TO closed_request_unpartitioned_pkey;
+ALTER INDEX service_request_pkey RENAME TO service_request_unpartitioned_pkey;
+
+CREATE TABLE Service_Request
+(
+	rid INTEGER NOT NULL,
+	customer_id INTEGER NOT NULL,
+	car_vin VARCHAR(16) NOT NULL,
+	date DATE NOT NULL,
+	odometer _PINTEGER NOT NULL,
+	complain TEXT,
+	PRIMARY KEY (rid, date),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+) PARTITION BY RANGE (date);
+
+CREATE TABLE Closed_Request
+(
+	wid INTEGER NOT NULL,
+	rid INTEGER NOT NULL,
+	mid INTEGER NOT NULL,
+	date DATE NOT NULL,
+	comment TEXT,
+	bill _PINTEGER NOT NULL,
+	PRIMARY KEY (wid, date),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+) PARTITION BY RANGE (date);
+
+ALTER SEQUENCE service_request_rid_seq OWNED BY Service_Request.rid;
+ALTER SEQUENCE closed_request_wid_seq OWNED BY Closed_Request.wid;
+
+-- Creates the missing yearly partitions of both tables for the years from
+-- p_from to p_to.  Called by the application at startup for this year and
+-- the next, by BulkLoader for the years of its files, and by the request
+-- functions for the date they write.  Returns the number created.
+CREATE OR REPLACE FUNCTION ensure_request_partitions(p_from DATE, p_to DATE) RETURNS INTEGER AS $$
+DECLARE
+	y INTEGER;
+	t TEXT;
+	locked BOOLEAN := false;
+	created INTEGER := 0;
+BEGIN
+	FOR y IN EXTRACT(YEAR FROM p_from)::INTEGER .. EXTRACT(YEAR FROM p_to)::INTEGER LOOP
+		FOREACH t IN ARRAY ARRAY['service_request', 'closed_request'] LOOP
+			IF to_regclass(t || '_y' || y) IS NULL THEN
+				IF NOT locked THEN
+					-- sessions creating the same year wait for each other
+					PERFORM pg_advisory_xact_lock(hashtext('ensure_request_partitions'));
+					locked := true;
+				END IF;
+				IF to_regclass(t || '_y' || y) IS NULL THEN
+					EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+						t || '_y' || y, t, make_date(y, 1, 1), make_date(y + 1, 1, 1));
+					created := created + 1;
+				END IF;
+			END IF;
+		END LOOP;
+	END LOOP;
+	RETURN created;
+END
+$$ LANGUAGE plpgsql;
+
+-- Detaches the yearly partitions that end on or before p_before and
+-- renames them <partition>_archive.  The archive tables keep their rows
+-- for dumping or dropping; customer_bill_total keeps counting their
+-- bills until ReconcileCustomerBillTotals is run.  Returns the archive
+-- table names.
+CREATE OR REPLACE FUNCTION detach_request_partitions(p_before DATE) RETURNS SETOF TEXT AS $$
+DECLARE
+	r RECORD;
+BEGIN
+	FOR r IN
+		SELECT c.relname AS part, p.relname AS parent
+		FROM pg_inherits i
+			JOIN pg_class c ON c.oid = i.inhrelid
+			JOIN pg_class p ON p.oid = i.inhparent
+		WHERE p.relname IN ('service_request', 'closed_request')
+			AND c.relname ~ '_y[0-9]{4}$'
+			AND make_date(substring(c.relname FROM '([0-9]{4})$')::INTEGER + 1, 1, 1) <= p_before
+		ORDER BY c.relname
+	LOOP
+		EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', r.parent, r.part);
+		EXECUTE format('ALTER TABLE %I RENAME TO %I', r.part, r.part || '_archive');
+		RETURN NEXT r.part || '_archive';
+	END LOOP;
+END
+$$ LANGUAGE plpgsql;
+
+SELECT ensure_request_partitions(
+	LEAST((SELECT MIN(date) FROM service_request_unpartitioned), (SELECT MIN(date) FROM closed_request_unpartitioned), current_date),
+	GREATEST((SELECT MAX(date) FROM service_request_unpartitioned), (SELECT MAX(date) FROM closed_request_unpartitioned),
+		(current_date + INTERVAL '1 year')::DATE));
+
+-- rows are routed to their year, customer_bill_total is unaffected
+INSERT INTO Service_Request SELECT * FROM service_request_unpartitioned;
+INSERT INTO Closed_Request SELECT * FROM closed_request_unpartitioned;
+DROP TABLE closed_request_unpartitioned;
+DROP TABLE service_request_unpartitioned;
+
+-- the indexes of V3 and V5, now created on every partition
+CREATE INDEX service_request_car_vin_idx ON Service_Request (car_vin);
+CREATE INDEX closed_request_rid_idx ON Closed_Request (rid);
+CREATE INDEX closed_request_bill_idx ON Closed_Request (bill);
+CREATE INDEX closed_request_small_bill_date_idx ON Closed_Request (date, wid) WHERE bill < 100;
+
+-- Closed_Request.rid must name a service request.  Unlike a foreign key
+-- this takes no row locks; requests are never deleted by the application.
+CREATE OR REPLACE FUNCTION closed_request_check_rid() RETURNS trigger AS $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM Service_Request WHERE rid = NEW.rid) THEN
+		RAISE EXCEPTION 'Service request % not found', NEW.rid USING ERRCODE = 'foreign_key_violation';
+	END IF;
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION service_request_check_closed() RETURNS trigger AS $$
+BEGIN
+	IF (TG_OP = 'DELETE' OR NEW.rid <> OLD.rid) AND EXISTS (SELECT 1 FROM Closed_Request WHERE rid = OLD.rid) THEN
+		RAISE EXCEPTION 'Service request % is closed', OLD.rid USING ERRCODE = 'foreign_key_violation';
+	END IF;
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER closed_request_check_rid
+AFTER INSERT OR UPDATE OF rid ON Closed_Request
+FOR EACH ROW EXECUTE PROCEDURE closed_request_check_rid();
+
+CREATE TRIGGER service_request_check_closed
+AFTER DELETE OR UPDATE OF rid ON Service_Request
+FOR EACH ROW EXECUTE PROCEDURE service_request_check_closed();
+
+-- as in V4
+CREATE TRIGGER customer_bill_total_closed_request
+AFTER INSERT OR UPDATE OF rid, bill OR DELETE ON Closed_Request
+FOR EACH ROW EXECUTE PROCEDURE customer_bill_total_closed_request();
+
+-- the request functions of V6, creating the partition of a new year on
+-- the first write into it
+CREATE OR REPLACE FUNCTION open_service_request(
+	p_rid INTEGER, p_customer_id INTEGER, p_car_vin VARCHAR, p_date DATE, p_odometer INTEGER, p_complain TEXT,
+	p_fname BPCHAR, p_lname BPCHAR, p_phone BPCHAR, p_address BPCHAR,
+	p_make VARCHAR, p_model VARCHAR, p_year INTEGER,
+	p_ownership_id INTEGER)
+RETURNS TABLE (car_make VARCHAR, car_model VARCHAR) AS $$
+BEGIN
+	PERFORM ensure_request_partitions(p_date, p_date);
+	IF p_fname IS NOT NULL THEN
+		INSERT INTO Customer VALUES (p_customer_id, p_fname, p_lname, p_phone, p_address);
+	END IF;
+	IF p_make IS NOT NULL THEN
+		INSERT INTO Car VALUES (p_car_vin, p_make, p_model, p_year) ON CONFLICT (vin) DO NOTHING;
+	END IF;
+	IF p_ownership_id IS NOT NULL THEN
+		INSERT INTO Owns VALUES (p_ownership_id, p_customer_id, p_car_vin);
+	END IF;
+	INSERT INTO Service_Request VALUES (p_rid, p_customer_id, p_car_vin, p_date, p_odometer, p_complain);
+	RETURN QUERY SELECT c.make, c.model FROM Car c WHERE c.vin = p_car_vin;
+END
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION close_service_request(
+	p_wid INTEGER, p_rid INTEGER, p_mid INTEGER, p_date DATE, p_comment TEXT, p_bill INTEGER)
+RETURNS void AS $$
+BEGIN
+	IF NOT EXISTS (SELECT 1 FROM Service_Request WHERE rid = p_rid) THEN
+		RAISE EXCEPTION 'Service request % not found', p_rid USING ERRCODE = 'MS001';
+	END IF;
+	IF NOT EXISTS (SELECT 1 FROM Mechanic WHERE id = p_mid) THEN
+		RAISE EXCEPTION 'Mechanic % not found', p_mid USING ERRCODE = 'MS002';
+	END IF;
+	PERFORM ensure_request_partitions(p_date, p_date);
+	-- a trigger adds the bill to the owners' customer_bill_total rows
+	INSERT INTO Closed_Request VALUES (p_wid, p_rid, p_mid, p_date, p_comment, p_bill);
+END
+$$ LANGUAGE plpgsql;
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
@@ -0,0 +1,21 @@
+-----------------------
+---REQUEST SEARCH---
+-----------------------
+-- Full-text search over the complaints of service requests and the
+-- comments of closed requests.  The tsvector columns are generated, so
+-- every insert and update maintains them, including the positional
+-- INSERT ... VALUES of the application and the COPY of BulkLoader.  The
+-- GIN indexes are created on every yearly partition.
+--
+-- Adding a stored column rewrites both tables once.
+
+ALTER TABLE Service_Request ADD COLUMN complain_tsv tsvector
+	GENERATED ALWAYS AS (to_tsvector('english', COALESCE(complain, ''))) STORED;
+ALTER TABLE Closed_Request ADD COLUMN comment_tsv tsvector
+	GENERATED ALWAYS AS (to_tsvector('english', COALESCE(comment, ''))) STORED;
+
+CREATE INDEX service_request_complain_tsv_idx ON Service_Request USING GIN (complain_tsv);
+CREATE INDEX closed_request_comment_tsv_idx ON Closed_Request USING GIN (comment_tsv);
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
@@ -0,0 +1,41 @@
+------------------------
+---REPORT CACHE NOTIFY---
+------------------------
+-- Statement triggers sending the name of every table written to the
+-- report_cache channel, so each process running with
+-- -DreportCache.notify=true drops the cached reports that read it (see
+-- ReportCache).  Writes of the process itself are seen without them.
+--
+-- NOTIFY takes a lock that serializes the commits of every notifying
+-- transaction, so the triggers are created disabled and the first process
+-- listening enables them with set_report_cache_notify(true).
+
+CREATE OR REPLACE FUNCTION report_cache_notify() RETURNS trigger AS $$
+BEGIN
+	PERFORM pg_notify('report_cache', TG_TABLE_NAME);
+	RETURN NULL;
+END
+$$ LANGUAGE plpgsql;
+
+DO $$
+DECLARE
+	t TEXT;
+BEGIN
+	FOREACH t IN ARRAY ARRAY['customer', 'mechanic', 'car', 'owns', 'service_request', 'closed_request', 'customer_bill_total'] LOOP
+		EXECUTE format('DROP TRIGGER IF EXISTS report_cache_notify ON %I', t);
+		EXECUTE format('CREATE TRIGGER report_cache_notify AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON %I '
+				'FOR EACH STATEMENT EXECUTE PROCEDURE report_cache_notify()', t);
+		EXECUTE format('ALTER TABLE %I DISABLE TRIGGER report_cache_notify', t);
+	END LOOP;
+END
+$$;
+
+CREATE OR REPLACE FUNCTION set_report_cache_notify(p_on BOOLEAN) RETURNS void AS $$
+DECLARE
+	t TEXT;
+BEGIN
+	FOREACH t IN ARRAY ARRAY['customer', 'mechanic', 'car', 'owns', 'service_request', 'closed_request', 'customer_bill_total'] LOOP
+		EXECUTE format('ALTER TABLE %I %s TRIGGER report_cache_notify', t, CASE WHEN p_on THEN 'ENABLE' ELSE 'DISABLE' END);
+	END LOOP;
+END
+$$ LANGUAGE plpgsql;